@@ -15,20 +15,12 @@ public class BackgroundProcessingService extends Service {
     private static final String TAG = "BackgroundService";
     private static final String CHANNEL_ID = "PayNotifyServiceChannel";
     private static final int FOREGROUND_ID = 1;
-    private static BackgroundProcessingService instance;
 
-    private BankNotificationProcessor processor;
     private boolean isRunning = false;
 
-    public static BackgroundProcessingService getInstance() {
-        return instance;
-    }
-
     @Override
     public void onCreate() {
         super.onCreate();
-        instance = this;
-        processor = new BankNotificationProcessor(this);
         createNotificationChannel();
         startForeground(FOREGROUND_ID, createForegroundNotification());
         isRunning = true;
@@ -76,16 +68,10 @@ public class BackgroundProcessingService extends Service {
             .build();
     }
 
-    public void processNotification(Notification notification, String packageName) {
-        if (!isRunning) return;
-        processor.processNotification(notification, packageName);
-    }
-
     @Override
     public void onDestroy() {
         super.onDestroy();
         isRunning = false;
-        instance = null;
         Log.i(TAG, "Background service destroyed");
     }
 
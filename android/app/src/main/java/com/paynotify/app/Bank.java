@@ -0,0 +1,58 @@
+package com.paynotify.app;
+
+import java.util.Locale;
+
+/**
+ * Banks the native pipeline knows about. The ordinal is used as a compact
+ * index into per-bank primitive arrays, so only append new constants.
+ */
+public enum Bank {
+    SCB,
+    KBANK,
+    KTB,
+    BBL,
+    TTB,
+    BAY,
+    GSB,
+    BAAC,
+    UOB,
+    UNKNOWN;
+
+    private static final Bank[] VALUES = values();
+
+    public static Bank fromOrdinal(int ordinal) {
+        return ordinal >= 0 && ordinal < VALUES.length ? VALUES[ordinal] : UNKNOWN;
+    }
+
+    public static Bank fromCode(String code) {
+        if (code == null) return UNKNOWN;
+        for (Bank bank : VALUES) {
+            if (bank.name().equalsIgnoreCase(code)) {
+                return bank;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Maps a bank_name column value back to a bank. Rows written natively
+     * hold the constant name, while older rows from the Dart side hold app
+     * display names such as "Kasikorn" or "ttb touch".
+     */
+    public static Bank fromStoredName(String name) {
+        Bank bank = fromCode(name);
+        if (bank != UNKNOWN || name == null) return bank;
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (lower.startsWith("scb")) return SCB;
+        if (lower.startsWith("kasikorn")) return KBANK;
+        if (lower.startsWith("krungthai")) return KTB;
+        if (lower.startsWith("bangkok bank")) return BBL;
+        if (lower.startsWith("tmb") || lower.startsWith("ttb")) return TTB;
+        if (lower.startsWith("krungsri")) return BAY;
+        return UNKNOWN;
+    }
+
+    public static int count() {
+        return VALUES.length;
+    }
+}
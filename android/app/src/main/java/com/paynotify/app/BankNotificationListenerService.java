@@ -4,24 +4,31 @@ import android.app.Notification;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.service.notification.NotificationListenerService;
 import android.service.notification.StatusBarNotification;
 import android.util.Log;
 import androidx.annotation.NonNull;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+import androidx.core.app.NotificationCompat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class BankNotificationListenerService extends NotificationListenerService {
     private static final String TAG = "PayNotify";
-    private static final String ACTION_NOTIFICATION = "com.paynotify.app.NOTIFICATION";
-    private static final String NOTIFICATION_CONTENT = "notification_content";
-    private static final String NOTIFICATION_PACKAGE = "notification_package";
-    private static final String NOTIFICATION_TIMESTAMP = "notification_timestamp";
-    private static final String NOTIFICATION_TITLE = "notification_title";
     
     // Enhanced bank app package names for detection
     private static final Set<String> BANK_PACKAGES = new HashSet<>(Arrays.asList(
@@ -93,6 +100,8 @@ public class BankNotificationListenerService extends NotificationListenerService
     public void onListenerConnected() {
         super.onListenerConnected();
         startBackgroundService();
+        // Pick up payments that were posted while the listener was down
+        recoveryExecutor.execute(this::recoverBacklog);
     }
 
     @Override
@@ -107,10 +116,20 @@ public class BankNotificationListenerService extends NotificationListenerService
     private long lastNotificationTime = 0;
     private static final int MAX_NOTIFICATIONS_PER_MINUTE = 10;
 
+    private static final int RECOVERY_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final long RECOVERY_TIMEOUT_MS = 2000;
+
+    private DeliveredNotificationLog deliveredLog;
+    // One coordinator thread so overlapping reconnects recover one at a time
+    private final ExecutorService recoveryExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService parseExecutor = Executors.newFixedThreadPool(RECOVERY_THREADS);
+
     @Override
     public void onCreate() {
         super.onCreate();
         notificationProcessor = new BankNotificationProcessor(this);
+        deliveredLog = DeliveredNotificationLog.getInstance(this);
+        PaymentPipeline.start(this);
         Log.i(TAG, "BankNotificationListenerService created");
     }
 
@@ -135,53 +154,185 @@ public class BankNotificationListenerService extends NotificationListenerService
             return;
         }
 
+        if (!deliveredLog.markDelivered(sbn)) {
+            // Already handled, e.g. replayed by backlog recovery
+            return;
+        }
+
+        long traceId = PaymentTracer.newTrace();
+        long start = PaymentTracer.begin("listener.notification");
+        // Time the system took to hand us the notification after it was posted
+        PaymentTracer.record(traceId, "notification.delivery", PaymentTracer.nanosAt(sbn.getPostTime()), start);
+        try {
+            publish(extractTransactions(sbn, traceId), traceId);
+        } finally {
+            PaymentTracer.end(traceId, "listener.notification", start);
+        }
+    }
+
+    /**
+     * Parses the notifications still in the shade on a small pool and
+     * publishes the new payments in post-time order. Anything already
+     * delivered live is skipped before parsing. The whole recovery is one
+     * trace.
+     */
+    private void recoverBacklog() {
+        long start = SystemClock.elapsedRealtime();
+        long traceId = PaymentTracer.newTrace();
+        long traceStart = PaymentTracer.begin("listener.recover");
+        try {
+            recoverBacklog(start, traceId);
+        } finally {
+            PaymentTracer.end(traceId, "listener.recover", traceStart);
+        }
+    }
+
+    private void recoverBacklog(long start, long traceId) {
+        StatusBarNotification[] active;
+        try {
+            active = getActiveNotifications();
+        } catch (SecurityException e) {
+            Log.e(TAG, "Cannot read active notifications: " + e.getMessage());
+            return;
+        }
+        if (active == null || active.length == 0) return;
+
+        List<Future<List<TransactionRecord>>> pending = new ArrayList<>();
+        for (StatusBarNotification sbn : active) {
+            if (BANK_PACKAGES.contains(sbn.getPackageName()) && deliveredLog.markDelivered(sbn)) {
+                pending.add(parseExecutor.submit(() -> extractTransactions(sbn, traceId)));
+            }
+        }
+
+        List<TransactionRecord> recovered = new ArrayList<>(pending.size());
+        long deadline = start + RECOVERY_TIMEOUT_MS;
+        for (Future<List<TransactionRecord>> future : pending) {
+            try {
+                long remaining = Math.max(0, deadline - SystemClock.elapsedRealtime());
+                recovered.addAll(future.get(remaining, TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                Log.w(TAG, "Backlog notification took too long to parse, skipping");
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Error recovering notification: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        // Workers finish in any order; downstream expects arrival order
+        recovered.sort((a, b) -> Long.compare(a.postTime, b.postTime));
+        publish(recovered, traceId);
+        Log.i(TAG, String.format("Recovered %d payments from %d active notifications in %d ms",
+            recovered.size(), active.length, SystemClock.elapsedRealtime() - start));
+    }
+
+    /**
+     * Extracts every payment in the notification. Grouped notifications
+     * are read part by part, MessagingStyle messages with their own
+     * timestamps and then InboxStyle lines, so a burst of transfers is not
+     * cut down to the one in the summary line. Anything else is one
+     * transfer, read from the expanded big text if there is one.
+     */
+    private List<TransactionRecord> extractTransactions(StatusBarNotification sbn, long traceId) {
         try {
             Notification notification = sbn.getNotification();
             Bundle extras = notification.extras;
-            String title = extras.getString(Notification.EXTRA_TITLE, "");
-            CharSequence contentCharSeq = extras.getCharSequence(Notification.EXTRA_TEXT);
-            String content = contentCharSeq != null ? contentCharSeq.toString() : "";
-            
-            // Skip empty notifications
-            if (content.isEmpty() && title.isEmpty()) {
-                return;
+            CharSequence titleCharSeq = extras.getCharSequence(Notification.EXTRA_TITLE);
+            String title = titleCharSeq != null ? titleCharSeq.toString() : "";
+            long postTime = sbn.getPostTime();
+
+            CharSequence[] parts;
+            long[] postTimes;
+            boolean grouped = true;
+            boolean partsHaveTimes = false;
+
+            NotificationCompat.MessagingStyle messagingStyle =
+                NotificationCompat.MessagingStyle.extractMessagingStyleFromNotification(notification);
+            CharSequence[] lines = extras.getCharSequenceArray(Notification.EXTRA_TEXT_LINES);
+            CharSequence bigText = extras.getCharSequence(Notification.EXTRA_BIG_TEXT);
+
+            if (messagingStyle != null && !messagingStyle.getMessages().isEmpty()) {
+                List<NotificationCompat.MessagingStyle.Message> messages = messagingStyle.getMessages();
+                parts = new CharSequence[messages.size()];
+                postTimes = new long[messages.size()];
+                for (int i = 0; i < parts.length; i++) {
+                    parts[i] = messages.get(i).getText();
+                    postTimes[i] = messages.get(i).getTimestamp();
+                }
+                partsHaveTimes = true;
+            } else if (lines != null && lines.length > 0) {
+                parts = lines;
+                postTimes = new long[lines.length];
+                Arrays.fill(postTimes, postTime);
+            } else if (bigText != null && bigText.length() > 0) {
+                parts = new CharSequence[]{bigText};
+                postTimes = new long[]{postTime};
+                grouped = false;
+            } else {
+                CharSequence contentCharSeq = extras.getCharSequence(Notification.EXTRA_TEXT);
+                String content = contentCharSeq != null ? contentCharSeq.toString() : "";
+
+                // Skip empty notifications
+                if (content.isEmpty() && title.isEmpty()) {
+                    return Collections.emptyList();
+                }
+                parts = new CharSequence[]{content};
+                postTimes = new long[]{postTime};
+                grouped = false;
             }
 
             // Process notification with enhanced processor
-            BankNotificationProcessor.ProcessedNotification result =
-                notificationProcessor.processNotification(packageName, title, content);
-
-            if (result != null) {
-                // Create notification data bundle
-                Bundle notificationData = new Bundle();
-                notificationData.putString(NOTIFICATION_PACKAGE, packageName);
-                notificationData.putString("bankName", result.bankName);
-                notificationData.putDouble("amount", result.amount);
-                notificationData.putString("accountNumber", result.accountNumber);
-                notificationData.putString("senderInfo", result.senderInfo);
-                notificationData.putString("rawText", result.rawText);
-                notificationData.putLong(NOTIFICATION_TIMESTAMP, sbn.getPostTime());
-
-                // Send to Flutter through method channel
-                NotificationListenerPlugin.sendNotificationToFlutter(notificationData);
-                
-                // Also broadcast locally
-                Intent intent = new Intent(ACTION_NOTIFICATION);
-                intent.putExtras(notificationData);
-                LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
-                
-                Log.i(TAG, String.format("Processed bank notification: %s - %.2f THB from %s",
-                    result.bankName, result.amount, result.senderInfo));
+            List<TransactionRecord> records =
+                notificationProcessor.processNotificationBatch(sbn.getPackageName(), title, parts, postTimes,
+                    grouped, traceId);
+            if (!grouped) {
+                return records;
+            }
+
+            // Grouped notifications are re-posted as transfers arrive and repeat the earlier
+            // ones, so each transfer is only delivered the first time it shows up. Lines share
+            // the post time of the latest re-post, so only message timestamps tell repeats apart;
+            // the occurrence index keeps a second identical transfer from reading as a repeat.
+            List<TransactionRecord> fresh = new ArrayList<>(records.size());
+            Map<Long, Integer> occurrences = new HashMap<>();
+            for (TransactionRecord record : records) {
+                long transfer = BankNotificationProcessor.fingerprint(sbn.getKey(),
+                    Long.toString(record.amountSatang), record.accountNumber, record.senderInfo,
+                    partsHaveTimes ? Long.toString(record.postTime) : null);
+                Integer seen = occurrences.get(transfer);
+                int occurrence = seen != null ? seen : 0;
+                occurrences.put(transfer, occurrence + 1);
+                long key = BankNotificationProcessor.fingerprint(Long.toString(transfer), Integer.toString(occurrence));
+                if (deliveredLog.markDelivered(key)) {
+                    fresh.add(record);
+                }
             }
+            return fresh;
 
         } catch (Exception e) {
             Log.e(TAG, "Error processing notification: " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    private void publish(List<TransactionRecord> records, long traceId) {
+        if (records.isEmpty()) return;
+        // Hand off to persistence, alerts, POS push and the Flutter bridge in one batch
+        PaymentEventBus.get().publishTransactions(records, traceId);
+
+        for (TransactionRecord result : records) {
+            Log.i(TAG, String.format("Processed bank notification: %s - %s THB from %s",
+                result.bankName(), result.formatAmount(), result.senderInfo));
         }
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
+        recoveryExecutor.shutdownNow();
+        parseExecutor.shutdownNow();
         Log.i(TAG, "BankNotificationListenerService destroyed");
     }
 }
\ No newline at end of file
@@ -7,38 +7,49 @@ import android.content.Context;
 import android.graphics.Color;
 import android.os.Build;
 import android.util.Log;
-import androidx.core.app.NotificationCompat;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class BankNotificationProcessor {
     private static final String TAG = "BankNotificationProcessor";
     
-    // Enhanced bank-specific patterns
+    // Bank notifications are short; anything past this is chat or SMS noise
+    static final int MAX_INPUT_LENGTH = 1024;
+    // Budget for all pattern matching on one notification part, checked between find() calls;
+    // the bounded repeats below and MAX_INPUT_LENGTH keep any single find() short. A worst-case
+    // 1024-char part takes about 2 ms on a desktop JIT, so this leaves room for a cold or slow device.
+    private static final long MATCH_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    // Enhanced bank-specific patterns, with bounded repeats so a miss cannot backtrack far
     private static final Map<String, BankPattern> BANK_PATTERNS = new HashMap<String, BankPattern>() {{
         put("com.scb.phone", new BankPattern(
-            "SCB",
-            Pattern.compile("(?:transferred|โอนเงิน|รับเงิน|เงินเข้า|ได้รับเงิน|รายการโอน).*?(\\d[\\d,\\.]+)(?:\\s*บาท|\\s*THB|\\s*฿)?"),
-            Pattern.compile("(?:a/c|account|บัญชี)[^\\d]*(\\d{3}[-\\s]?\\d+[-\\s]?\\d+)"),
-            Pattern.compile("(?:จาก|from|โดย|By)[^\\d\\n]*(.[^\\d\\n]{2,}?)(?:\\s|$)")
+            Bank.SCB,
+            Pattern.compile("(?:transferred|โอนเงิน|รับเงิน|เงินเข้า|ได้รับเงิน|รายการโอน).{0,64}?(\\d[\\d,.]{0,15})"),
+            Pattern.compile("(?:a/c|account|บัญชี)\\D{0,32}?(\\d{3}[-\\s]?\\d{1,7}[-\\s]?\\d{1,7})"),
+            Pattern.compile("(?:จาก|from|โดย|By)[^\\d\\n]{0,64}(.[^\\d\\n]{2,64}?)(?:\\s|$)")
         ));
         put("com.kasikorn.retail.mbanking", new BankPattern(
-            "KBANK",
-            Pattern.compile("(?:transferred|โอนเงิน|รับเงิน|เงินเข้า|ได้รับเงิน|รายการโอน).*?(\\d[\\d,\\.]+)(?:\\s*บาท|\\s*THB|\\s*฿)?"),
-            Pattern.compile("(?:a/c|account|บัญชี)[^\\d]*(\\d{3}[-\\s]?\\d+[-\\s]?\\d+)"),
-            Pattern.compile("(?:จาก|from|โดย|By)[^\\d\\n]*(.[^\\d\\n]{2,}?)(?:\\s|$)")
+            Bank.KBANK,
+            Pattern.compile("(?:transferred|โอนเงิน|รับเงิน|เงินเข้า|ได้รับเงิน|รายการโอน).{0,64}?(\\d[\\d,.]{0,15})"),
+            Pattern.compile("(?:a/c|account|บัญชี)\\D{0,32}?(\\d{3}[-\\s]?\\d{1,7}[-\\s]?\\d{1,7})"),
+            Pattern.compile("(?:จาก|from|โดย|By)[^\\d\\n]{0,64}(.[^\\d\\n]{2,64}?)(?:\\s|$)")
         ));
         // Add more bank-specific patterns
     }};
     
     // Notification channels
-    private static final String CHANNEL_TRANSACTIONS = "transactions";
+    static final String CHANNEL_TRANSACTIONS = "transactions";
     private static final String CHANNEL_ALERTS = "alerts";
     
     private final Context context;
     private NotificationManager notificationManager;
+    // Off unless a consumer that shows raw text is attached; see setKeepRawText
+    private static volatile boolean keepRawText = false;
     
     public BankNotificationProcessor(Context context) {
         this.context = context;
@@ -72,107 +83,190 @@ public class BankNotificationProcessor {
         }
     }
     
-    public ProcessedNotification processNotification(String packageName, String title, String content) {
-        try {
-            BankPattern bankPattern = BANK_PATTERNS.get(packageName);
-            if (bankPattern == null) {
-                // Try generic patterns
-                return processWithGenericPatterns(packageName, title, content);
+    public TransactionRecord processNotification(String packageName, String title, String content) {
+        return processNotification(packageName, title, content, System.currentTimeMillis());
+    }
+
+    public TransactionRecord processNotification(String packageName, String title, String content, long postTime) {
+        List<TransactionRecord> records =
+            processNotificationBatch(packageName, title, new CharSequence[]{content}, new long[]{postTime}, false);
+        return records.isEmpty() ? null : records.get(0);
+    }
+
+    /**
+     * Extracts the transactions in a notification's parts, each one line,
+     * message or text body with its own post time. In a {@code grouped}
+     * notification, such as an InboxStyle or MessagingStyle burst, each
+     * part is read on its own, without the title, and a part that mentions
+     * several amounts is split at each one written with a currency unit or
+     * decimals, so every transfer keeps the account and sender next to it
+     * and a count such as "2 ครั้ง" is not taken for one. Any other part is
+     * read with the title and is one transfer, its first amount.
+     */
+    public List<TransactionRecord> processNotificationBatch(String packageName, String title,
+                                                            CharSequence[] parts, long[] postTimes,
+                                                            boolean grouped) {
+        return processNotificationBatch(packageName, title, parts, postTimes, grouped, PaymentTracer.NO_TRACE);
+    }
+
+    /** As above, recording the extraction as a span of {@code traceId}. */
+    public List<TransactionRecord> processNotificationBatch(String packageName, String title,
+                                                            CharSequence[] parts, long[] postTimes,
+                                                            boolean grouped, long traceId) {
+        long start = PaymentTracer.begin("processor.extract");
+        List<TransactionRecord> records = new ArrayList<>(parts.length);
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                extractTransactions(packageName, title, parts[i], postTimes[i], grouped, records);
+            } catch (BoundedCharSequence.MatchTimeoutException e) {
+                Log.w(TAG, "Gave up on notification from " + packageName + ": " + e.getMessage());
+            } catch (Exception e) {
+                Log.e(TAG, "Error processing notification: " + e.getMessage());
             }
-            
-            String combinedText = title + " " + content;
-            
-            // Extract amount
-            Matcher amountMatcher = bankPattern.amountPattern.matcher(combinedText);
-            if (!amountMatcher.find()) {
-                return null;
+        }
+        PaymentTracer.end(traceId, "processor.extract", start);
+        return records;
+    }
+
+    private void extractTransactions(String packageName, String title, CharSequence content, long postTime,
+                                     boolean splitAmounts, List<TransactionRecord> records) {
+        // Thai and full-width digits, invisible characters and odd spacing are folded here,
+        // so the patterns below only deal with ASCII digits and single spaces
+        // A grouped part is one entry under a shared title, which would otherwise be matched with every part
+        String combinedText = ThaiTextNormalizer.normalize(splitAmounts ? content : title + " " + content,
+            MAX_INPUT_LENGTH);
+        // The view only bounds a match on engines that read through charAt; ICU on Android does not,
+        // so the deadline is also checked after every find()
+        long deadline = System.nanoTime() + MATCH_BUDGET_NANOS;
+        CharSequence input = new BoundedCharSequence(combinedText, MATCH_BUDGET_NANOS);
+
+        BankPattern bankPattern = BANK_PATTERNS.get(packageName);
+        if (bankPattern == null) {
+            // Try generic patterns
+            bankPattern = findPatternByBankName(combinedText);
+            if (bankPattern == null) {
+                return;
             }
-            String amount = amountMatcher.group(1).replaceAll(",", "");
-            
-            // Extract account number
-            String accountNumber = "";
-            Matcher accountMatcher = bankPattern.accountPattern.matcher(combinedText);
-            if (accountMatcher.find()) {
-                accountNumber = accountMatcher.group(1);
+        }
+
+        // Extract amounts; when split, each one owns the text up to where the next one starts
+        Matcher amountMatcher = bankPattern.amountPattern.matcher(input);
+        if (!amountMatcher.find()) {
+            return;
+        }
+        String amount = amountMatcher.group(1);
+        int segmentStart = 0;
+        while (amount != null) {
+            BoundedCharSequence.checkDeadline(deadline, combinedText.length());
+            String nextAmount = null;
+            int segmentEnd = combinedText.length();
+            while (splitAmounts && amountMatcher.find()) {
+                if (isWrittenAsMoney(combinedText, amountMatcher.start(1), amountMatcher.end(1))) {
+                    nextAmount = amountMatcher.group(1);
+                    segmentEnd = amountMatcher.start();
+                    break;
+                }
+                BoundedCharSequence.checkDeadline(deadline, combinedText.length());
             }
-            
-            // Extract sender info
-            String senderInfo = "Unknown";
-            Matcher senderMatcher = bankPattern.senderPattern.matcher(combinedText);
-            if (senderMatcher.find()) {
-                senderInfo = senderMatcher.group(1).trim();
+
+            long amountSatang = TransactionRecord.parseSatang(amount);
+            if (amountSatang >= 0) {
+                records.add(extractTransaction(bankPattern, input, segmentStart, segmentEnd, amountSatang,
+                    packageName, postTime, combinedText, deadline));
             }
-            
-            // Create notification data
-            ProcessedNotification result = new ProcessedNotification();
-            result.amount = Double.parseDouble(amount);
-            result.bankName = bankPattern.bankName;
-            result.accountNumber = accountNumber;
-            result.senderInfo = senderInfo;
-            result.rawText = combinedText;
-            
-            // Show rich notification
-            showTransactionNotification(result);
-            
-            return result;
-            
-        } catch (Exception e) {
-            Log.e(TAG, "Error processing notification: " + e.getMessage());
-            return null;
+            segmentStart = segmentEnd;
+            amount = nextAmount;
         }
     }
+
+    // Decimals, or a currency unit right before or after, tell an amount from a count or a date
+    private static boolean isWrittenAsMoney(String text, int start, int end) {
+        int point = text.lastIndexOf('.', end - 1);
+        if (point >= start && point < end - 1) {
+            return true;
+        }
+        int after = end < text.length() && text.charAt(end) == ' ' ? end + 1 : end;
+        if (text.startsWith("บาท", after) || text.regionMatches(true, after, "THB", 0, 3)
+                || text.regionMatches(true, after, "baht", 0, 4) || text.startsWith("฿", after)) {
+            return true;
+        }
+        int before = start > 0 && text.charAt(start - 1) == ' ' ? start - 1 : start;
+        return text.startsWith("฿", before - 1) || text.regionMatches(true, before - 3, "THB", 0, 3);
+    }
+
+    private TransactionRecord extractTransaction(BankPattern bankPattern, CharSequence input, int start, int end,
+                                                 long amountSatang, String packageName, long postTime,
+                                                 String combinedText, long deadline) {
+        // Extract account number
+        String accountNumber = "";
+        Matcher accountMatcher = bankPattern.accountPattern.matcher(input).region(start, end);
+        if (accountMatcher.find()) {
+            accountNumber = accountMatcher.group(1);
+        }
+        BoundedCharSequence.checkDeadline(deadline, combinedText.length());
+
+        // Extract sender info
+        String senderInfo = "Unknown";
+        Matcher senderMatcher = bankPattern.senderPattern.matcher(input).region(start, end);
+        if (senderMatcher.find()) {
+            senderInfo = senderMatcher.group(1).trim();
+        }
+
+        return new TransactionRecord(bankPattern.bank, amountSatang, accountNumber, senderInfo,
+            packageName, postTime, keepRawText ? combinedText : null);
+    }
+
+    /**
+     * Whether extracted records carry the full notification text, for every
+     * processor in the process. Only the Flutter bridge shows it, so the
+     * bridge turns it on while it is attached and records stay small
+     * otherwise.
+     */
+    public static void setKeepRawText(boolean keep) {
+        keepRawText = keep;
+    }
     
-    private ProcessedNotification processWithGenericPatterns(String packageName, String title, String content) {
+    private BankPattern findPatternByBankName(String combinedText) {
         // Generic patterns for any bank notification
-        String combinedText = title + " " + content;
+        String lowerText = combinedText.toLowerCase();
         
         // Try to find any bank name
-        for (Map.Entry<String, BankPattern> entry : BANK_PATTERNS.entrySet()) {
-            if (combinedText.toLowerCase().contains(entry.getValue().bankName.toLowerCase())) {
-                return processNotification(entry.getKey(), title, content);
+        for (BankPattern pattern : BANK_PATTERNS.values()) {
+            if (lowerText.contains(pattern.bank.name().toLowerCase())) {
+                return pattern;
             }
         }
         
         return null;
     }
     
-    private void showTransactionNotification(ProcessedNotification data) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_TRANSACTIONS)
-                .setSmallIcon(R.drawable.notification_icon)
-                .setContentTitle("รับเงินเข้าบัญชี " + data.bankName)
-                .setContentText(String.format("%.2f บาท จาก %s", data.amount, data.senderInfo))
-                .setPriority(NotificationCompat.PRIORITY_HIGH)
-                .setAutoCancel(true);
-                
-            NotificationCompat.BigTextStyle bigText = new NotificationCompat.BigTextStyle();
-            bigText.bigText(String.format("จำนวน %.2f บาท\nจาก %s\nบัญชี %s", 
-                data.amount, data.senderInfo, data.accountNumber));
-            builder.setStyle(bigText);
-            
-            notificationManager.notify(data.hashCode(), builder.build());
+    // 64-bit FNV-1a over the given parts, used for stable notification IDs
+    static long fingerprint(String... parts) {
+        long hash = 0xcbf29ce484222325L;
+        for (String part : parts) {
+            if (part != null) {
+                for (int i = 0; i < part.length(); i++) {
+                    hash ^= part.charAt(i);
+                    hash *= 0x100000001b3L;
+                }
+            }
+            hash ^= 0x1f;
+            hash *= 0x100000001b3L;
         }
+        return hash;
     }
     
     private static class BankPattern {
-        final String bankName;
+        final Bank bank;
         final Pattern amountPattern;
         final Pattern accountPattern;
         final Pattern senderPattern;
         
-        BankPattern(String bankName, Pattern amountPattern, Pattern accountPattern, Pattern senderPattern) {
-            this.bankName = bankName;
+        BankPattern(Bank bank, Pattern amountPattern, Pattern accountPattern, Pattern senderPattern) {
+            this.bank = bank;
             this.amountPattern = amountPattern;
             this.accountPattern = accountPattern;
             this.senderPattern = senderPattern;
         }
     }
-    
-    public static class ProcessedNotification {
-        public double amount;
-        public String bankName;
-        public String accountNumber;
-        public String senderInfo;
-        public String rawText;
-    }
 }
\ No newline at end of file
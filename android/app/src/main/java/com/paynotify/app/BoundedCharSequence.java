@@ -0,0 +1,71 @@
+package com.paynotify.app;
+
+/**
+ * Read-only view of a CharSequence that throws once a deadline has passed.
+ * The OpenJDK regex engine reads its input only through charAt, so there
+ * matching against this view turns a runaway backtracking match into a
+ * quick MatchTimeoutException instead of a stalled callback.
+ *
+ * On Android, java.util.regex is backed by ICU, which copies the input
+ * with toString() before matching and never calls charAt, so the view
+ * bounds nothing on a device. There the bounded repeats in the patterns
+ * and the input length cap keep each find() short, and callers check
+ * their deadline between find() calls; see BankNotificationProcessor.
+ *
+ * Well-formed patterns read each char only a few times, so the first
+ * FREE_READS_PER_CHAR reads per char are never timed; that keeps a GC
+ * pause or JIT compile during an ordinary match from dropping a real
+ * payment. Past that the clock is read every CHECK_INTERVAL reads.
+ */
+public final class BoundedCharSequence implements CharSequence {
+    private static final int CHECK_INTERVAL = 256;
+    private static final int FREE_READS_PER_CHAR = 64;
+
+    private final CharSequence text;
+    private final long deadlineNanos;
+    private final long freeReads;
+    private long reads;
+
+    public static final class MatchTimeoutException extends RuntimeException {
+        MatchTimeoutException(int length) {
+            super("Pattern matching exceeded its time budget on " + length + " chars");
+        }
+    }
+
+    /** Throws if {@code deadlineNanos}, a System.nanoTime value, has passed. */
+    public static void checkDeadline(long deadlineNanos, int length) {
+        if (System.nanoTime() - deadlineNanos > 0) {
+            throw new MatchTimeoutException(length);
+        }
+    }
+
+    public BoundedCharSequence(CharSequence text, long budgetNanos) {
+        this.text = text;
+        this.deadlineNanos = System.nanoTime() + budgetNanos;
+        this.freeReads = (long) FREE_READS_PER_CHAR * text.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (++reads > freeReads && reads % CHECK_INTERVAL == 0 && System.nanoTime() - deadlineNanos > 0) {
+            throw new MatchTimeoutException(text.length());
+        }
+        return text.charAt(index);
+    }
+
+    @Override
+    public int length() {
+        return text.length();
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        // Only used to extract groups after a match has finished
+        return text.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+}
@@ -0,0 +1,130 @@
+package com.paynotify.app;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Recently received credits, bucketed by minute, for checking a slip the
+ * customer shows against money that actually arrived. Buckets form a ring
+ * covering RETENTION_MINUTES, so memory is bounded and old credits fall
+ * out as the ring wraps. A lookup scans only the buckets inside the time
+ * window, and each bucket holds the few credits of one minute as
+ * primitive arrays, so verification stays well under a millisecond.
+ *
+ * A credit can verify one slip only; showing the same slip again, or a
+ * copy of it, comes back unmatched with previouslyVerified set.
+ */
+public final class CreditIndex {
+    public static final String VERIFIED = "VERIFIED";
+    public static final String UNMATCHED = "UNMATCHED";
+    public static final String AMBIGUOUS = "AMBIGUOUS";
+
+    static final int RETENTION_MINUTES = 180;
+    static final long WINDOW_MS = 15 * 60 * 1000;
+    private static final long MINUTE_MS = 60 * 1000;
+    private static final int INITIAL_BUCKET_SIZE = 4;
+
+    private static final CreditIndex INSTANCE = new CreditIndex();
+
+    private final long[] bucketMinutes = new long[RETENTION_MINUTES];
+    private final int[] bucketCounts = new int[RETENTION_MINUTES];
+    private final long[][] amounts = new long[RETENTION_MINUTES][];
+    private final TransactionRecord[][] records = new TransactionRecord[RETENTION_MINUTES][];
+    private final boolean[][] verified = new boolean[RETENTION_MINUTES][];
+
+    public static CreditIndex get() {
+        return INSTANCE;
+    }
+
+    private CreditIndex() {
+        Arrays.fill(bucketMinutes, Long.MIN_VALUE);
+    }
+
+    public synchronized void add(TransactionRecord record) {
+        long minute = Math.floorDiv(record.postTime, MINUTE_MS);
+        int slot = (int) Math.floorMod(minute, (long) RETENTION_MINUTES);
+        if (bucketMinutes[slot] != minute) {
+            if (bucketMinutes[slot] > minute) {
+                // Older than the ring covers
+                return;
+            }
+            // Slot still holds a minute that has aged out; reuse it
+            bucketMinutes[slot] = minute;
+            bucketCounts[slot] = 0;
+            if (amounts[slot] == null) {
+                amounts[slot] = new long[INITIAL_BUCKET_SIZE];
+                records[slot] = new TransactionRecord[INITIAL_BUCKET_SIZE];
+                verified[slot] = new boolean[INITIAL_BUCKET_SIZE];
+            } else {
+                Arrays.fill(records[slot], null);
+            }
+        }
+
+        int count = bucketCounts[slot];
+        if (count == amounts[slot].length) {
+            amounts[slot] = Arrays.copyOf(amounts[slot], count * 2);
+            records[slot] = Arrays.copyOf(records[slot], count * 2);
+            verified[slot] = Arrays.copyOf(verified[slot], count * 2);
+        }
+        amounts[slot][count] = record.amountSatang;
+        records[slot][count] = record;
+        verified[slot][count] = false;
+        bucketCounts[slot] = count + 1;
+    }
+
+    /**
+     * Looks for credits of exactly {@code amountSatang} within WINDOW_MS of
+     * {@code slipTime}. A VERIFIED credit is claimed so it cannot verify
+     * another slip. Several unclaimed matches come back AMBIGUOUS: the bank
+     * on a slip is the payer's, while a credit only knows the bank it was
+     * received into, so the two cannot be compared to narrow them down.
+     */
+    public synchronized Map<String, Object> verify(long amountSatang, long slipTime) {
+        long firstMinute = Math.floorDiv(slipTime - WINDOW_MS, MINUTE_MS);
+        long lastMinute = Math.floorDiv(slipTime + WINDOW_MS, MINUTE_MS);
+
+        int candidates = 0;
+        int candidateSlot = -1;
+        int candidateIndex = -1;
+        boolean previouslyVerified = false;
+
+        for (long minute = firstMinute; minute <= lastMinute; minute++) {
+            int slot = (int) Math.floorMod(minute, (long) RETENTION_MINUTES);
+            if (bucketMinutes[slot] != minute) continue;
+
+            long[] bucketAmounts = amounts[slot];
+            for (int i = 0; i < bucketCounts[slot]; i++) {
+                if (bucketAmounts[i] != amountSatang) continue;
+                if (verified[slot][i]) {
+                    previouslyVerified = true;
+                    continue;
+                }
+                candidates++;
+                candidateSlot = slot;
+                candidateIndex = i;
+            }
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("candidates", candidates);
+        result.put("previouslyVerified", previouslyVerified);
+
+        if (candidates == 1) {
+            verified[candidateSlot][candidateIndex] = true;
+            TransactionRecord match = records[candidateSlot][candidateIndex];
+
+            Map<String, Object> matched = new HashMap<>();
+            matched.put("bankName", match.bankName());
+            matched.put("amount", match.amount());
+            matched.put("senderInfo", match.senderInfo);
+            matched.put("accountNumber", match.accountNumber);
+            matched.put("timestamp", match.postTime);
+            result.put("status", VERIFIED);
+            result.put("matchedTransaction", matched);
+        } else {
+            result.put("status", candidates == 0 ? UNMATCHED : AMBIGUOUS);
+        }
+        return result;
+    }
+}
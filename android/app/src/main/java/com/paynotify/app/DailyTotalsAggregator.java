@@ -0,0 +1,265 @@
+package com.paynotify.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rolling per-bank, per-day totals kept up to date as transactions are
+ * accepted, so dashboards can read them in O(banks) per day instead of
+ * re-aggregating the transaction table. Days live in a ring of DAYS slots
+ * and each slot holds one row of primitives per bank, indexed by Bank ordinal.
+ */
+public class DailyTotalsAggregator {
+    private static final String TAG = "DailyTotalsAggregator";
+    private static final String SNAPSHOT_FILE = "daily_totals.bin";
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final long SNAPSHOT_DELAY_MS = 2000;
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    static final int DAYS = 64;
+    static final int BANKS = Bank.count();
+
+    private static DailyTotalsAggregator instance;
+
+    private final AtomicFile snapshotFile;
+    private final ScheduledExecutorService snapshotExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final TimeZone timeZone = TimeZone.getDefault();
+
+    private final long[] slotDays = new long[DAYS];
+    private final int[] counts = new int[DAYS * BANKS];
+    private final long[] sums = new long[DAYS * BANKS];
+    private final long[] mins = new long[DAYS * BANKS];
+    private final long[] maxs = new long[DAYS * BANKS];
+    private long newestDay = Long.MIN_VALUE;
+    private boolean snapshotScheduled = false;
+
+    public static synchronized DailyTotalsAggregator getInstance(Context context) {
+        if (instance == null) {
+            instance = new DailyTotalsAggregator(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private DailyTotalsAggregator(Context context) {
+        snapshotFile = new AtomicFile(new File(context.getFilesDir(), SNAPSHOT_FILE));
+        Arrays.fill(slotDays, Long.MIN_VALUE);
+        if (!loadSnapshot()) {
+            seedFromStore(context);
+        }
+    }
+
+    public void record(TransactionRecord transaction) {
+        recordSatang(transaction.bank, transaction.amountSatang, transaction.postTime);
+    }
+
+    public synchronized void recordSatang(Bank bank, long amountSatang, long postTime) {
+        long day = epochDay(postTime);
+        if (newestDay != Long.MIN_VALUE && day <= newestDay - DAYS) {
+            // Older than the ring covers
+            return;
+        }
+        newestDay = Math.max(newestDay, day);
+
+        int slot = slotFor(day);
+        int index = slot * BANKS + bank.ordinal();
+        if (counts[index] == 0) {
+            mins[index] = amountSatang;
+            maxs[index] = amountSatang;
+        } else {
+            mins[index] = Math.min(mins[index], amountSatang);
+            maxs[index] = Math.max(maxs[index], amountSatang);
+        }
+        counts[index]++;
+        sums[index] += amountSatang;
+
+        scheduleSnapshot();
+    }
+
+    /**
+     * Totals for the last {@code days} days, keyed by yyyy-MM-dd with the
+     * oldest day first, in the shape the Flutter side consumes.
+     */
+    public synchronized Map<String, Object> getTotals(int days) {
+        days = Math.max(1, Math.min(days, DAYS));
+        long today = epochDay(System.currentTimeMillis());
+        Map<String, Object> result = new LinkedHashMap<>();
+
+        for (long day = today - days + 1; day <= today; day++) {
+            int slot = (int) Math.floorMod(day, (long) DAYS);
+            Map<String, Object> banks = new HashMap<>();
+            long dayTotal = 0;
+            int dayCount = 0;
+
+            if (slotDays[slot] == day) {
+                int base = slot * BANKS;
+                for (int bank = 0; bank < BANKS; bank++) {
+                    int index = base + bank;
+                    if (counts[index] == 0) continue;
+
+                    Map<String, Object> bankTotals = new HashMap<>();
+                    bankTotals.put("count", counts[index]);
+                    bankTotals.put("sumSatang", sums[index]);
+                    bankTotals.put("minSatang", mins[index]);
+                    bankTotals.put("maxSatang", maxs[index]);
+                    banks.put(Bank.fromOrdinal(bank).name(), bankTotals);
+                    dayTotal += sums[index];
+                    dayCount += counts[index];
+                }
+            }
+
+            Map<String, Object> dayTotals = new HashMap<>();
+            dayTotals.put("count", dayCount);
+            dayTotals.put("total", dayTotal / 100.0);
+            dayTotals.put("banks", banks);
+            result.put(formatDay(day), dayTotals);
+        }
+        return result;
+    }
+
+    /**
+     * Count and sum in satang for one bank on the day containing
+     * {@code time}, as {count, sumSatang}.
+     */
+    public synchronized long[] getDayTotals(Bank bank, long time) {
+        long day = epochDay(time);
+        int slot = (int) Math.floorMod(day, (long) DAYS);
+        if (slotDays[slot] != day) {
+            return new long[]{0, 0};
+        }
+        int index = slot * BANKS + bank.ordinal();
+        return new long[]{counts[index], sums[index]};
+    }
+
+    private int slotFor(long day) {
+        int slot = (int) Math.floorMod(day, (long) DAYS);
+        if (slotDays[slot] != day) {
+            // Slot still holds a day that has rolled out of the ring
+            slotDays[slot] = day;
+            int base = slot * BANKS;
+            Arrays.fill(counts, base, base + BANKS, 0);
+            Arrays.fill(sums, base, base + BANKS, 0);
+            Arrays.fill(mins, base, base + BANKS, 0);
+            Arrays.fill(maxs, base, base + BANKS, 0);
+        }
+        return slot;
+    }
+
+    private long epochDay(long millis) {
+        return Math.floorDiv(millis + timeZone.getOffset(millis), MILLIS_PER_DAY);
+    }
+
+    private String formatDay(long epochDay) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(epochDay * MILLIS_PER_DAY);
+        return String.format(Locale.US, "%04d-%02d-%02d",
+            calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH));
+    }
+
+    private void scheduleSnapshot() {
+        if (snapshotScheduled) return;
+        snapshotScheduled = true;
+        snapshotExecutor.schedule(this::writeSnapshot, SNAPSHOT_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void writeSnapshot() {
+        FileOutputStream stream = null;
+        try {
+            stream = snapshotFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            synchronized (this) {
+                snapshotScheduled = false;
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(DAYS);
+                out.writeInt(BANKS);
+                out.writeLong(newestDay);
+                for (int slot = 0; slot < DAYS; slot++) {
+                    out.writeLong(slotDays[slot]);
+                }
+                for (int i = 0; i < counts.length; i++) {
+                    out.writeInt(counts[i]);
+                    out.writeLong(sums[i]);
+                    out.writeLong(mins[i]);
+                    out.writeLong(maxs[i]);
+                }
+            }
+            out.flush();
+            snapshotFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing daily totals snapshot: " + e.getMessage());
+            if (stream != null) {
+                snapshotFile.failWrite(stream);
+            }
+        }
+    }
+
+    // Without a snapshot the ring would start empty, so rebuild it from the rows already stored
+    private void seedFromStore(Context context) {
+        TransactionStore store = new TransactionStore(context);
+        int seeded = 0;
+        try (Cursor cursor = store.queryRange(System.currentTimeMillis() - DAYS * MILLIS_PER_DAY, Long.MAX_VALUE)) {
+            TransactionStore.Row row = new TransactionStore.Row();
+            while (cursor != null && cursor.moveToNext()) {
+                TransactionStore.readRow(cursor, row);
+                recordSatang(Bank.fromStoredName(row.bankName), Math.round(row.amount * 100), row.timestamp);
+                seeded++;
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error seeding daily totals from the database: " + e.getMessage());
+        } finally {
+            store.close();
+        }
+        Log.i(TAG, "Seeded daily totals from " + seeded + " stored transactions");
+    }
+
+    private boolean loadSnapshot() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(snapshotFile.openRead()))) {
+            if (in.readInt() != SNAPSHOT_VERSION || in.readInt() != DAYS || in.readInt() != BANKS) {
+                Log.w(TAG, "Discarding daily totals snapshot with a different layout");
+                return false;
+            }
+            newestDay = in.readLong();
+            for (int slot = 0; slot < DAYS; slot++) {
+                slotDays[slot] = in.readLong();
+            }
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = in.readInt();
+                sums[i] = in.readLong();
+                mins[i] = in.readLong();
+                maxs[i] = in.readLong();
+            }
+            return true;
+        } catch (FileNotFoundException e) {
+            // First run, nothing to restore
+            return false;
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading daily totals snapshot: " + e.getMessage());
+            Arrays.fill(slotDays, Long.MIN_VALUE);
+            Arrays.fill(counts, 0);
+            Arrays.fill(sums, 0);
+            newestDay = Long.MIN_VALUE;
+            return false;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.paynotify.app;
+
+import android.content.Context;
+import android.service.notification.StatusBarNotification;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers which bank notifications have already been handed to the
+ * pipeline, keyed by notification key and post time, so a notification
+ * seen live is not published again when the listener reconnects and
+ * replays the shade. The most recent CAPACITY keys are kept in a ring and
+ * snapshotted to disk shortly after they change, which lets the check
+ * survive the process being killed.
+ */
+public class DeliveredNotificationLog {
+    private static final String TAG = "DeliveredNotificationLog";
+    private static final String SNAPSHOT_FILE = "delivered_notifications.bin";
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final long SNAPSHOT_DELAY_MS = 2000;
+
+    // Comfortably more than the shade holds, small enough to scan linearly
+    static final int CAPACITY = 512;
+
+    private static DeliveredNotificationLog instance;
+
+    private final AtomicFile snapshotFile;
+    private final ScheduledExecutorService snapshotExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private final long[] keys = new long[CAPACITY];
+    private int size = 0;
+    private int next = 0;
+    private boolean snapshotScheduled = false;
+
+    public static synchronized DeliveredNotificationLog getInstance(Context context) {
+        if (instance == null) {
+            instance = new DeliveredNotificationLog(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private DeliveredNotificationLog(Context context) {
+        snapshotFile = new AtomicFile(new File(context.getFilesDir(), SNAPSHOT_FILE));
+        loadSnapshot();
+    }
+
+    static long key(StatusBarNotification sbn) {
+        return BankNotificationProcessor.fingerprint(sbn.getKey(), Long.toString(sbn.getPostTime()));
+    }
+
+    /**
+     * Records the notification as delivered. Returns false if it already
+     * was, in which case the caller should drop it.
+     */
+    public boolean markDelivered(StatusBarNotification sbn) {
+        return markDelivered(key(sbn));
+    }
+
+    public synchronized boolean markDelivered(long key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key) {
+                return false;
+            }
+        }
+        keys[next] = key;
+        next = (next + 1) % CAPACITY;
+        size = Math.min(size + 1, CAPACITY);
+        scheduleSnapshot();
+        return true;
+    }
+
+    private void scheduleSnapshot() {
+        if (snapshotScheduled) return;
+        snapshotScheduled = true;
+        snapshotExecutor.schedule(this::writeSnapshot, SNAPSHOT_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void writeSnapshot() {
+        FileOutputStream stream = null;
+        try {
+            stream = snapshotFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            synchronized (this) {
+                snapshotScheduled = false;
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(size);
+                out.writeInt(next);
+                for (int i = 0; i < size; i++) {
+                    out.writeLong(keys[i]);
+                }
+            }
+            out.flush();
+            snapshotFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing delivered notifications: " + e.getMessage());
+            if (stream != null) {
+                snapshotFile.failWrite(stream);
+            }
+        }
+    }
+
+    private void loadSnapshot() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(snapshotFile.openRead()))) {
+            if (in.readInt() != SNAPSHOT_VERSION) {
+                Log.w(TAG, "Discarding delivered notifications with a different layout");
+                return;
+            }
+            int storedSize = in.readInt();
+            int storedNext = in.readInt();
+            if (storedSize < 0 || storedSize > CAPACITY || storedNext < 0 || storedNext >= CAPACITY) {
+                Log.w(TAG, "Discarding corrupt delivered notifications");
+                return;
+            }
+            for (int i = 0; i < storedSize; i++) {
+                keys[i] = in.readLong();
+            }
+            size = storedSize;
+            next = storedNext;
+        } catch (FileNotFoundException e) {
+            // First run, nothing to restore
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading delivered notifications: " + e.getMessage());
+            size = 0;
+            next = 0;
+        }
+    }
+}
@@ -1,24 +1,50 @@
 package com.paynotify.app;
 
+import android.Manifest;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+import java.io.File;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
 
-public class NotificationListenerPlugin implements FlutterPlugin, MethodCallHandler, BankNotificationListenerService.NotificationEventListener {
+public class NotificationListenerPlugin implements FlutterPlugin, MethodCallHandler, PaymentEventBus.Consumer {
     private static final String TAG = "NotificationPlugin";
     private static final String CHANNEL_NAME = "com.paynotify/notification_listener";
+    private static final String POS_PREFS_NAME = "paynotify_pos";
+    private static final String KEY_POS_PAIRING_TOKEN = "pairing_token";
 
     private MethodChannel channel;
     private Context context;
+    private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor();
+    // A sync can run for minutes; keep it off the thread other channel calls use
+    private final ExecutorService syncExecutor = Executors.newSingleThreadExecutor();
+    // Interactive lookups must not wait behind an import or export
+    private final ExecutorService queryExecutor = Executors.newSingleThreadExecutor();
+    private final android.os.Handler mainHandler = new android.os.Handler(android.os.Looper.getMainLooper());
+    private SupabaseSyncWorker syncWorker;
+    private PaymentEventBus.Subscription busSubscription;
 
     @Override
     public void onAttachedToEngine(@NonNull FlutterPlugin.FlutterPluginBinding binding) {
@@ -26,12 +52,17 @@ public class NotificationListenerPlugin implements FlutterPlugin, MethodCallHand
         channel = new MethodChannel(binding.getBinaryMessenger(), CHANNEL_NAME);
         channel.setMethodCallHandler(this);
 
-        // Set this class as the notification event listener
-        BankNotificationListenerService.setNotificationEventListener(this);
+        // Forward processed events from the native pipeline to Flutter, which shows the raw text
+        BankNotificationProcessor.setKeepRawText(true);
+        PaymentPipeline.start(context);
+        busSubscription = PaymentEventBus.get().subscribe("flutter", this);
     }
 
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPlugin.FlutterPluginBinding binding) {
+        PaymentEventBus.get().unsubscribe(busSubscription);
+        busSubscription = null;
+        BankNotificationProcessor.setKeepRawText(false);
         channel.setMethodCallHandler(null);
         channel = null;
         context = null;
@@ -56,6 +87,47 @@ public class NotificationListenerPlugin implements FlutterPlugin, MethodCallHand
                 stopNotificationListenerService();
                 result.success(null);
                 break;
+            case "getDailyTotals":
+                Integer days = call.argument("days");
+                getDailyTotals(days != null ? days : 7, result);
+                break;
+            case "searchSender":
+                Integer limit = call.argument("limit");
+                searchSender(call.argument("query"), limit != null ? limit : 20, result);
+                break;
+            case "addPendingOrder":
+                addPendingOrder(call, result);
+                break;
+            case "removePendingOrder":
+                result.success(PendingOrderMatcher.get().removeOrder(call.argument("orderId")));
+                break;
+            case "getPendingOrderCount":
+                result.success(PendingOrderMatcher.get().getOpenOrderCount());
+                break;
+            case "importSmsHistory":
+                Integer importDays = call.argument("days");
+                importSmsHistory(importDays != null ? importDays : 90, result);
+                break;
+            case "exportTransactions":
+                exportTransactions(call, result);
+                break;
+            case "getPipelineMetrics":
+                result.success(PaymentPipeline.getMetrics());
+                break;
+            case "getTraceFiles":
+                getTraceFiles(result);
+                break;
+            case "startPosServer":
+                Integer port = call.argument("port");
+                startPosServer(port != null ? port : PosEventServer.DEFAULT_PORT, result);
+                break;
+            case "stopPosServer":
+                PosEventServer.stop();
+                result.success(null);
+                break;
+            case "startNativeSync":
+                startNativeSync(call.argument("supabaseUrl"), call.argument("supabaseKey"), result);
+                break;
             default:
                 result.notImplemented();
                 break;
@@ -63,54 +135,251 @@ public class NotificationListenerPlugin implements FlutterPlugin, MethodCallHand
     }
 
     @Override
-    public void onNotificationReceived(String packageName, String title, String text) {
-        if (channel != null && context != null) {
-            try {
-                // Process notification using BankNotificationProcessor
-                BankNotificationProcessor processor = new BankNotificationProcessor(context);
-                BankNotificationProcessor.ProcessedNotification result =
-                    processor.processNotification(packageName, title, text);
-
-                if (result != null) {
-                    // Create a map with the processed data
-                    java.util.Map<String, Object> data = new java.util.HashMap<>();
-                    data.put("packageName", packageName);
-                    data.put("bankName", result.bankName);
-                    data.put("amount", result.amount);
-                    data.put("accountNumber", result.accountNumber);
-                    data.put("senderInfo", result.senderInfo);
-                    data.put("rawText", result.rawText);
-                    data.put("timestamp", System.currentTimeMillis());
-
-                    // Invoke Flutter method on the UI thread with enhanced data
-                    new android.os.Handler(android.os.Looper.getMainLooper()).post(() -> {
-                        channel.invokeMethod("onNotificationReceived", data, new MethodChannel.Result() {
-                            @Override
-                            public void success(Object result) {
-                                Log.d(TAG, "Successfully sent bank notification to Flutter");
-                            }
-
-                            @Override
-                            public void error(String errorCode, String errorMessage, Object errorDetails) {
-                                Log.e(TAG, "Error in Flutter while processing notification: " + errorMessage);
-                            }
-
-                            @Override
-                            public void notImplemented() {
-                                Log.e(TAG, "Notification handling not implemented in Flutter");
-                            }
-                        });
-                    });
-                } else {
-                    Log.d(TAG, "Notification was not a valid bank transaction");
+    public void onEvent(PaymentEventBus.PaymentEvent event) {
+        final String method;
+        final Map<String, Object> data;
+
+        switch (event.type) {
+            case PaymentEventBus.TYPE_TRANSACTION:
+                method = "onNotificationReceived";
+                data = new HashMap<>();
+                data.put("packageName", event.packageName);
+                data.put("bankName", event.transaction.bankName());
+                data.put("amount", event.transaction.amount());
+                data.put("accountNumber", event.transaction.accountNumber);
+                data.put("senderInfo", event.transaction.senderInfo);
+                data.put("rawText", event.transaction.rawText);
+                data.put("timestamp", event.postTime);
+                data.put("traceId", PaymentTracer.format(event.traceId));
+                break;
+            case PaymentEventBus.TYPE_ORDER_MATCHED:
+                method = "onOrderMatched";
+                data = new HashMap<>();
+                data.put("orderId", event.orderMatch.orderId);
+                data.put("amount", event.orderMatch.amountSatang / 100.0);
+                data.put("amountSatang", event.orderMatch.amountSatang);
+                data.put("otherCandidates", event.orderMatch.otherCandidates);
+                data.put("bankName", event.transaction.bankName());
+                data.put("senderInfo", event.transaction.senderInfo);
+                data.put("timestamp", event.postTime);
+                data.put("traceId", PaymentTracer.format(event.traceId));
+                break;
+            case PaymentEventBus.TYPE_SCREEN_CAPTURE:
+                method = "onScreenCaptureResult";
+                data = event.ocrResult;
+                break;
+            default:
+                return;
+        }
+
+        invokeFlutter(method, data, event.traceId);
+    }
+
+    private void invokeFlutter(String method, Object data) {
+        invokeFlutter(method, data, PaymentTracer.NO_TRACE);
+    }
+
+    private void invokeFlutter(String method, Object data, long traceId) {
+        long posted = SystemClock.elapsedRealtimeNanos();
+        // Invoke Flutter method on the UI thread
+        mainHandler.post(() -> {
+            if (channel == null) {
+                Log.e(TAG, "Channel is null, cannot deliver " + method);
+                return;
+            }
+            long sent = SystemClock.elapsedRealtimeNanos();
+            // A busy UI thread shows up here rather than in the Dart handler
+            PaymentTracer.record(traceId, "flutter.main_queue", posted, sent);
+            channel.invokeMethod(method, data, new MethodChannel.Result() {
+                @Override
+                public void success(Object result) {
+                    PaymentTracer.record(traceId, "flutter.handler", sent, SystemClock.elapsedRealtimeNanos());
+                    Log.d(TAG, "Successfully sent " + method + " to Flutter");
                 }
-            } catch (Exception e) {
-                Log.e(TAG, "Error processing bank notification: " + e.getMessage());
-                e.printStackTrace();
+
+                @Override
+                public void error(String errorCode, String errorMessage, Object errorDetails) {
+                    Log.e(TAG, "Error in Flutter while handling " + method + ": " + errorMessage);
+                }
+
+                @Override
+                public void notImplemented() {
+                    Log.e(TAG, method + " not implemented in Flutter");
+                }
+            });
+        });
+    }
+
+    private void addPendingOrder(MethodCall call, Result result) {
+        String orderId = call.argument("orderId");
+        Number amountSatang = call.argument("amountSatang");
+        Number ttlSeconds = call.argument("ttlSeconds");
+        if (orderId == null || amountSatang == null) {
+            result.error("INVALID_ORDER", "orderId and amountSatang are required", null);
+            return;
+        }
+        long ttlMs = (ttlSeconds != null ? ttlSeconds.longValue() : 30 * 60) * 1000;
+        result.success(PendingOrderMatcher.get().addOrder(orderId, amountSatang.longValue(),
+            System.currentTimeMillis() + ttlMs));
+    }
+
+    private void getTraceFiles(Result result) {
+        backgroundExecutor.execute(() -> {
+            List<String> paths = PaymentTracer.flush();
+            mainHandler.post(() -> result.success(paths));
+        });
+    }
+
+    // The first call loads the snapshot, or seeds from the database, so keep it off the main thread
+    private void getDailyTotals(int days, Result result) {
+        queryExecutor.execute(() -> {
+            Map<String, Object> totals = DailyTotalsAggregator.getInstance(context).getTotals(days);
+            mainHandler.post(() -> result.success(totals));
+        });
+    }
+
+    private void searchSender(String query, int limit, Result result) {
+        queryExecutor.execute(() -> {
+            try {
+                List<Map<String, Object>> matches = SenderIndex.getInstance(context).search(query, limit);
+                mainHandler.post(() -> result.success(matches));
+            } catch (IOException e) {
+                Log.e(TAG, "Error searching sender index: " + e.getMessage());
+                mainHandler.post(() -> result.error("SENDER_INDEX_ERROR", e.getMessage(), null));
             }
+        });
+    }
+
+    private void importSmsHistory(int days, Result result) {
+        if (context.checkSelfPermission(Manifest.permission.READ_SMS) != PackageManager.PERMISSION_GRANTED) {
+            result.error("PERMISSION_DENIED", "READ_SMS permission is required to import SMS", null);
+            return;
+        }
+
+        SmsImportJob job = new SmsImportJob(context);
+        backgroundExecutor.execute(() -> {
+            Map<String, Object> summary = job.run(days, (scanned, total, imported) -> {
+                Map<String, Object> progress = new HashMap<>();
+                progress.put("scanned", scanned);
+                progress.put("total", total);
+                progress.put("imported", imported);
+                invokeFlutter("onSmsImportProgress", progress);
+            });
+            mainHandler.post(() -> result.success(summary));
+        });
+    }
+
+    private void exportTransactions(MethodCall call, Result result) {
+        String format = call.argument("format");
+        Boolean gzip = call.argument("gzip");
+        Number fromTime = call.argument("fromTime");
+        Number toTime = call.argument("toTime");
+        String path = call.argument("path");
+        if (format == null) {
+            format = TransactionExporter.FORMAT_CSV;
+        }
+        if (!TransactionExporter.FORMAT_CSV.equals(format) && !TransactionExporter.FORMAT_NDJSON.equals(format)) {
+            result.error("INVALID_FORMAT", "format must be csv or ndjson", null);
+            return;
+        }
+        boolean compress = gzip != null && gzip;
+
+        File target;
+        if (path != null) {
+            target = new File(path);
         } else {
-            Log.e(TAG, "Channel or context is null, cannot process notification");
+            // Under the app's external files dir, where the share sheet and adb can reach it
+            File dir = context.getExternalFilesDir("exports");
+            if (dir == null) {
+                dir = new File(context.getFilesDir(), "exports");
+            }
+            String name = "transactions-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date())
+                + "." + format + (compress ? ".gz" : "");
+            target = new File(dir, name);
+        }
+        File dir = target.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            result.error("EXPORT_ERROR", "Cannot create " + dir, null);
+            return;
+        }
+
+        TransactionExporter exporter = new TransactionExporter(context);
+        String exportFormat = format;
+        long from = fromTime != null ? fromTime.longValue() : 0;
+        long to = toTime != null ? toTime.longValue() : Long.MAX_VALUE;
+        backgroundExecutor.execute(() -> {
+            try {
+                Map<String, Object> summary = exporter.export(target, exportFormat, compress, from, to,
+                    (written, total) -> {
+                        Map<String, Object> progress = new HashMap<>();
+                        progress.put("written", written);
+                        progress.put("total", total);
+                        invokeFlutter("onExportProgress", progress);
+                    });
+                mainHandler.post(() -> result.success(summary));
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Error exporting transactions: " + e.getMessage());
+                mainHandler.post(() -> result.error("EXPORT_ERROR", e.getMessage(), null));
+            }
+        });
+    }
+
+    private void startPosServer(int port, Result result) {
+        try {
+            byte[] token = posPairingToken();
+            Map<String, Object> server = new HashMap<>();
+            server.put("port", PosEventServer.start(port, token).getPort());
+            // Entered on the POS once; clients without it never see a payment
+            server.put("pairingToken", toHex(token));
+            result.success(server);
+        } catch (IOException e) {
+            Log.e(TAG, "Error starting POS event server: " + e.getMessage());
+            result.error("POS_SERVER_ERROR", e.getMessage(), null);
+        }
+    }
+
+    private byte[] posPairingToken() {
+        SharedPreferences prefs = context.getSharedPreferences(POS_PREFS_NAME, Context.MODE_PRIVATE);
+        String stored = prefs.getString(KEY_POS_PAIRING_TOKEN, null);
+        byte[] token = new byte[PosEventServer.PAIRING_TOKEN_SIZE];
+        if (stored != null && stored.length() == token.length * 2) {
+            for (int i = 0; i < token.length; i++) {
+                token[i] = (byte) Integer.parseInt(stored.substring(i * 2, i * 2 + 2), 16);
+            }
+            return token;
         }
+        new SecureRandom().nextBytes(token);
+        prefs.edit().putString(KEY_POS_PAIRING_TOKEN, toHex(token)).apply();
+        return token;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format(Locale.US, "%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private void startNativeSync(String supabaseUrl, String supabaseKey, Result result) {
+        if (supabaseUrl == null || supabaseKey == null) {
+            result.error("INVALID_ARGUMENTS", "supabaseUrl and supabaseKey are required", null);
+            return;
+        }
+        if (syncWorker != null && syncWorker.isRunning()) {
+            result.error("SYNC_IN_PROGRESS", "A native sync is already running", null);
+            return;
+        }
+
+        syncWorker = new SupabaseSyncWorker(context, supabaseUrl, supabaseKey);
+        SupabaseSyncWorker worker = syncWorker;
+        syncExecutor.execute(() -> {
+            SupabaseSyncWorker.SyncResult syncResult = worker.syncAll();
+            Map<String, Object> data = new HashMap<>();
+            data.put("uploaded", syncResult.uploaded.get());
+            data.put("failed", syncResult.failed.get());
+            mainHandler.post(() -> result.success(data));
+        });
     }
 
     private boolean isNotificationListenerEnabled() {
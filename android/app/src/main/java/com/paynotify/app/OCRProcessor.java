@@ -4,16 +4,15 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
 import androidx.annotation.NonNull;
 
 import com.google.mlkit.vision.common.InputImage;
 import com.google.mlkit.vision.text.Text;
-import com.google.mlkit.vision.text.TextRecognition;
-import com.google.mlkit.vision.text.TextRecognizer;
-import com.google.mlkit.vision.text.latin.TextRecognizerOptions;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -25,8 +24,22 @@ import java.util.regex.Pattern;
 public class OCRProcessor {
     private static final String TAG = "OCRProcessor";
     private final Context context;
-    private final TextRecognizer recognizer;
-    private final BankNotificationProcessor bankProcessor;
+    private volatile OcrImagePreprocessor preprocessor = new OcrImagePreprocessor(
+        OcrImagePreprocessor.DEFAULT_MAX_LONG_EDGE, OcrImagePreprocessor.CONTRAST_NORMALIZE);
+
+    // OCR output can run to a whole screen of text
+    static final int MAX_TEXT_LENGTH = 4096;
+
+    // Input is normalized first, so ASCII digits and single spaces are all these need to handle
+    static final Pattern AMOUNT_PATTERN = Pattern.compile(
+        "(?:THB|฿|บาท) ?([0-9,]+\\.?\\d*)|([0-9,]+\\.?\\d*) ?(?:THB|฿|บาท)"
+    );
+    static final Pattern ACCOUNT_PATTERN = Pattern.compile(
+        "(?:a/c|account|บัญชี)\\D{0,32}?(\\d{3}[- ]?\\d{1,7}[- ]?\\d{1,7})"
+    );
+    static final Pattern SENDER_PATTERN = Pattern.compile(
+        "(?:จาก|from|โดย|By)[^\\d\\n]{0,64}([\\wก-๙ '\".]+?)(?: |$)"
+    );
 
     // Bank logo detection coordinates (normalized)
     private static final Map<String, float[]> BANK_LOGO_REGIONS = new HashMap<String, float[]>() {{
@@ -39,53 +52,111 @@ public class OCRProcessor {
 
     public OCRProcessor(Context context) {
         this.context = context;
-        this.recognizer = TextRecognition.getClient(TextRecognizerOptions.DEFAULT_OPTIONS);
-        this.bankProcessor = new BankNotificationProcessor(context);
+        // Start loading the model now rather than on the first frame
+        SharedTextRecognizer.get();
     }
 
-    public CompletableFuture<Map<String, Object>> processTransferImage(String imagePath) {
-        CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+    /**
+     * Sets the long-edge clamp and contrast step (one of the
+     * OcrImagePreprocessor.CONTRAST_ constants) for images from now on.
+     */
+    public void setPreprocessing(int maxLongEdge, int contrastMode) {
+        preprocessor = new OcrImagePreprocessor(maxLongEdge, contrastMode);
+    }
 
+    public CompletableFuture<Map<String, Object>> processTransferImage(String imagePath) {
+        long traceId = PaymentTracer.newTrace();
         try {
             // Load and prepare the image
-            Bitmap bitmap = loadAndPreprocessImage(imagePath);
-            if (bitmap == null) {
+            long start = PaymentTracer.begin("ocr.decode");
+            InputImage image;
+            try {
+                image = loadAndPreprocessImage(imagePath);
+            } finally {
+                PaymentTracer.end(traceId, "ocr.decode", start);
+            }
+            if (image == null) {
+                CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
                 future.completeExceptionally(new Exception("Failed to load image"));
                 return future;
             }
 
-            InputImage image = InputImage.fromBitmap(bitmap, 0);
-
-            // Process the image with ML Kit
-            recognizer.process(image)
-                    .addOnSuccessListener(visionText -> {
-                        try {
-                            Map<String, Object> result = extractTransferInfo(visionText);
-                            future.complete(result);
-                        } catch (Exception e) {
-                            Log.e(TAG, "Error processing OCR result: " + e.getMessage());
-                            future.completeExceptionally(e);
-                        }
-                    })
-                    .addOnFailureListener(e -> {
-                        Log.e(TAG, "OCR failed: " + e.getMessage());
-                        future.completeExceptionally(e);
-                    });
+            long queued = SystemClock.elapsedRealtimeNanos();
+            return SharedTextRecognizer.get().submitImport(image)
+                .thenApply(visionText -> extractOrNull(visionText, traceId, queued, true));
 
         } catch (Exception e) {
             Log.e(TAG, "Error in processTransferImage: " + e.getMessage());
+            CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
             future.completeExceptionally(e);
+            return future;
         }
+    }
 
-        return future;
+    /**
+     * OCR for a live screen frame in RGBA_8888, read straight from the
+     * ImageReader plane; the pixels are converted before this returns, so
+     * the Image can be closed right after. Completes with null if a newer
+     * frame replaced this one before the recognizer got to it. Frames show
+     * the merchant's own banking app, not a customer's slip, so they are
+     * never checked against received credits and claim none.
+     */
+    public CompletableFuture<Map<String, Object>> processScreenFrame(ByteBuffer pixels, int width, int height,
+                                                                     int rowStride, int pixelStride, long traceId) {
+        long start = PaymentTracer.begin("ocr.preprocess");
+        InputImage image;
+        try {
+            image = preprocessor.fromRgba(pixels, width, height, rowStride, pixelStride);
+        } finally {
+            PaymentTracer.end(traceId, "ocr.preprocess", start);
+        }
+        long queued = SystemClock.elapsedRealtimeNanos();
+        return SharedTextRecognizer.get().submitFrame(image)
+            .thenApply(visionText -> extractOrNull(visionText, traceId, queued, false));
+    }
+
+    /** Extracts the transfer, and with {@code slip} set also verifies it against received credits. */
+    private Map<String, Object> extractOrNull(Text visionText, long traceId, long queuedNanos, boolean slip) {
+        if (visionText == null) return null;
+        long start = PaymentTracer.begin("ocr.extract");
+        // Waiting behind other images plus recognition itself
+        PaymentTracer.record(traceId, "ocr.recognize", queuedNanos, start);
+        try {
+            Map<String, Object> result = extractTransferInfo(visionText);
+            if (slip) {
+                verifySlip(result);
+            }
+            result.put("traceId", PaymentTracer.format(traceId));
+            return result;
+        } finally {
+            PaymentTracer.end(traceId, "ocr.extract", start);
+        }
     }
 
-    private Bitmap loadAndPreprocessImage(String imagePath) {
+    private InputImage loadAndPreprocessImage(String imagePath) {
         try {
-            // Load the image
+            // Read the size first so the decoder can subsample instead of decoding at full size
             BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
-            return BitmapFactory.decodeFile(imagePath, options);
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(imagePath, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            OcrImagePreprocessor preprocessor = this.preprocessor;
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = preprocessor.sampleSizeFor(options.outWidth, options.outHeight);
+            // Only luminance is kept, so half the bytes per pixel lose nothing
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            Bitmap bitmap = BitmapFactory.decodeFile(imagePath, options);
+            if (bitmap == null) {
+                return null;
+            }
+            try {
+                return preprocessor.fromBitmap(bitmap);
+            } finally {
+                bitmap.recycle();
+            }
         } catch (Exception e) {
             Log.e(TAG, "Error loading image: " + e.getMessage());
             return null;
@@ -95,7 +166,7 @@ public class OCRProcessor {
     @NonNull
     private Map<String, Object> extractTransferInfo(Text visionText) {
         Map<String, Object> result = new HashMap<>();
-        String fullText = visionText.getText();
+        String fullText = ThaiTextNormalizer.normalize(visionText.getText(), MAX_TEXT_LENGTH);
         
         // Try to identify bank from logo region first
         String detectedBank = detectBankFromRegions(visionText);
@@ -106,31 +177,25 @@ public class OCRProcessor {
         result.put("bankName", detectedBank != null ? detectedBank : "Unknown");
 
         // Extract amount
-        Pattern amountPattern = Pattern.compile(
-            "(?:THB|฿|บาท)\\s*([0-9,]+\\.?\\d*)|([0-9,]+\\.?\\d*)\\s*(?:THB|฿|บาท)"
-        );
-        Matcher amountMatcher = amountPattern.matcher(fullText);
+        Matcher amountMatcher = AMOUNT_PATTERN.matcher(fullText);
         if (amountMatcher.find()) {
             String amountStr = amountMatcher.group(1) != null ? 
                              amountMatcher.group(1) : amountMatcher.group(2);
-            amountStr = amountStr.replaceAll(",", "");
-            result.put("amount", Double.parseDouble(amountStr));
+            long amountSatang = TransactionRecord.parseSatang(amountStr);
+            if (amountSatang >= 0) {
+                result.put("amount", amountSatang / 100.0);
+                result.put("amountSatang", amountSatang);
+            }
         }
 
         // Extract account number
-        Pattern accountPattern = Pattern.compile(
-            "(?:a/c|account|บัญชี)[^\\d]*(\\d{3}[-\\s]?\\d+[-\\s]?\\d+)"
-        );
-        Matcher accountMatcher = accountPattern.matcher(fullText);
+        Matcher accountMatcher = ACCOUNT_PATTERN.matcher(fullText);
         if (accountMatcher.find()) {
             result.put("accountNumber", accountMatcher.group(1));
         }
 
         // Extract sender info
-        Pattern senderPattern = Pattern.compile(
-            "(?:จาก|from|โดย|By)[^\\d\\n]*([\\wก-๙\\s'\".]+?)(?:\\s|$)"
-        );
-        Matcher senderMatcher = senderPattern.matcher(fullText);
+        Matcher senderMatcher = SENDER_PATTERN.matcher(fullText);
         if (senderMatcher.find()) {
             result.put("senderInfo", senderMatcher.group(1).trim());
         }
@@ -141,7 +206,18 @@ public class OCRProcessor {
         return result;
     }
 
+    // Check the slip against credits that actually arrived; a match claims its credit
+    private static void verifySlip(Map<String, Object> result) {
+        Object amountSatang = result.get("amountSatang");
+        if (amountSatang != null) {
+            result.put("verification", CreditIndex.get().verify((Long) amountSatang, System.currentTimeMillis()));
+        }
+    }
+
     private String detectBankFromRegions(Text visionText) {
+        if (visionText.getTextBlocks().isEmpty()) {
+            return null;
+        }
         int imageWidth = visionText.getTextBlocks().get(0).getBoundingBox().width();
         int imageHeight = visionText.getTextBlocks().get(0).getBoundingBox().height();
 
@@ -185,8 +261,4 @@ public class OCRProcessor {
     private boolean isWithinRegion(int x, int y, int x1, int y1, int x2, int y2) {
         return x >= x1 && x <= x2 && y >= y1 && y <= y2;
     }
-
-    public void cleanup() {
-        recognizer.close();
-    }
 }
\ No newline at end of file
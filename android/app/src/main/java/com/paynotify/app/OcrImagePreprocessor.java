@@ -0,0 +1,276 @@
+package com.paynotify.app;
+
+import android.graphics.Bitmap;
+
+import com.google.mlkit.vision.common.InputImage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Turns screen frames and slip images into the smallest input ML Kit
+ * still reads well. Pixels are reduced to 8-bit luminance and box-averaged
+ * by the largest whole factor that keeps the long edge at or above
+ * maxLongEdge, then resampled bilinearly so the long edge is exactly
+ * maxLongEdge. Box-averaging alone would round a 2000 px frame down to
+ * 1000 px, well under the size ML Kit reads small text at. An optional
+ * contrast step then either stretches the histogram or binarizes it. The
+ * result goes to ML Kit as an NV21 buffer with neutral chroma, since ML
+ * Kit does not take plain luminance. That is 1.5 bytes per pixel instead
+ * of 4 for ARGB_8888, on top of the reduction in size.
+ */
+public final class OcrImagePreprocessor {
+    public static final int CONTRAST_NONE = 0;
+    // Stretch the 1st..99th percentile to the full range; helps grey-on-white slips
+    public static final int CONTRAST_NORMALIZE = 1;
+    // Otsu threshold to pure black and white
+    public static final int CONTRAST_BINARIZE = 2;
+
+    // Enough for the smallest text on a phone screen to stay legible to ML Kit
+    public static final int DEFAULT_MAX_LONG_EDGE = 1280;
+
+    private static final int CLIP_PERCENT = 1;
+    // Stretching a histogram this narrow would only amplify noise
+    private static final int MIN_CONTRAST_RANGE = 16;
+    private static final byte NEUTRAL_CHROMA = (byte) 128;
+
+    private final int maxLongEdge;
+    private final int contrastMode;
+
+    public OcrImagePreprocessor(int maxLongEdge, int contrastMode) {
+        if (maxLongEdge < 32) {
+            throw new IllegalArgumentException("maxLongEdge too small: " + maxLongEdge);
+        }
+        this.maxLongEdge = maxLongEdge;
+        this.contrastMode = contrastMode;
+    }
+
+    /**
+     * Largest power-of-two BitmapFactory inSampleSize that still leaves the
+     * long edge at or above maxLongEdge, so decoding does most of the
+     * shrinking and the box filter and resample only the rest.
+     */
+    public int sampleSizeFor(int width, int height) {
+        int longEdge = Math.max(width, height);
+        int sampleSize = 1;
+        while (longEdge / (sampleSize * 2) >= maxLongEdge) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Converts RGBA_8888 pixels, such as an ImageReader plane, without an
+     * intermediate Bitmap. {@code pixels} is read from its current position
+     * and left unchanged.
+     */
+    public InputImage fromRgba(ByteBuffer pixels, int width, int height, int rowStride, int pixelStride) {
+        int step = stepFor(width, height);
+        int boxWidth = width / step;
+        int boxHeight = height / step;
+        byte[] luma = new byte[boxWidth * boxHeight];
+        int[] sums = new int[boxWidth];
+        byte[] rows = new byte[rowStride * step];
+        ByteBuffer source = pixels.duplicate();
+        int base = source.position();
+
+        for (int y = 0; y < boxHeight; y++) {
+            source.position(base + y * step * rowStride);
+            // The last row of a plane may stop short of rowStride
+            source.get(rows, 0, Math.min(rows.length, source.remaining()));
+            Arrays.fill(sums, 0);
+            for (int dy = 0; dy < step; dy++) {
+                int offset = dy * rowStride;
+                for (int x = 0; x < boxWidth; x++) {
+                    int p = offset + x * step * pixelStride;
+                    for (int dx = 0; dx < step; dx++, p += pixelStride) {
+                        sums[x] += luma(rows[p] & 0xff, rows[p + 1] & 0xff, rows[p + 2] & 0xff);
+                    }
+                }
+            }
+            storeRow(luma, y * boxWidth, sums, step * step);
+        }
+        return finish(luma, boxWidth, boxHeight);
+    }
+
+    public InputImage fromBitmap(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int step = stepFor(width, height);
+        int boxWidth = width / step;
+        int boxHeight = height / step;
+        byte[] luma = new byte[boxWidth * boxHeight];
+        int[] sums = new int[boxWidth];
+        int[] rows = new int[width * step];
+
+        for (int y = 0; y < boxHeight; y++) {
+            bitmap.getPixels(rows, 0, width, 0, y * step, width, step);
+            Arrays.fill(sums, 0);
+            for (int dy = 0; dy < step; dy++) {
+                int offset = dy * width;
+                for (int x = 0; x < boxWidth; x++) {
+                    int p = offset + x * step;
+                    for (int dx = 0; dx < step; dx++) {
+                        int c = rows[p + dx];
+                        sums[x] += luma((c >> 16) & 0xff, (c >> 8) & 0xff, c & 0xff);
+                    }
+                }
+            }
+            storeRow(luma, y * boxWidth, sums, step * step);
+        }
+        return finish(luma, boxWidth, boxHeight);
+    }
+
+    // Largest whole step that keeps the long edge at or above maxLongEdge; resize() does the rest
+    private int stepFor(int width, int height) {
+        return Math.max(1, Math.max(width, height) / maxLongEdge);
+    }
+
+    /**
+     * Copies the luma plane into an NV21 buffer with even dimensions,
+     * resampling bilinearly when the long edge is still above maxLongEdge.
+     * After the box step that is a factor below 2, where bilinear sampling
+     * skips no source pixels.
+     */
+    private static byte[] resize(byte[] luma, int width, int height, int outWidth, int outHeight) {
+        byte[] nv21 = new byte[outWidth * outHeight * 3 / 2];
+        if (outWidth >= width - 1 && outHeight >= height - 1) {
+            // Only the odd last row or column is dropped
+            for (int y = 0; y < outHeight; y++) {
+                System.arraycopy(luma, y * width, nv21, y * outWidth, outWidth);
+            }
+            return nv21;
+        }
+
+        // Source coordinates in 16.16 fixed point, sampled at pixel centres
+        int[] x0 = new int[outWidth];
+        int[] xWeight = new int[outWidth];
+        long xRatio = ((long) width << 16) / outWidth;
+        for (int x = 0; x < outWidth; x++) {
+            long sx = Math.max(0, x * xRatio + (xRatio >> 1) - (1 << 15));
+            x0[x] = (int) Math.min(sx >> 16, width - 1);
+            xWeight[x] = (int) (sx >> 8) & 0xff;
+        }
+        long yRatio = ((long) height << 16) / outHeight;
+        for (int y = 0; y < outHeight; y++) {
+            long sy = Math.max(0, y * yRatio + (yRatio >> 1) - (1 << 15));
+            int top = (int) Math.min(sy >> 16, height - 1) * width;
+            int bottom = Math.min(top + width, (height - 1) * width);
+            int yWeight = (int) (sy >> 8) & 0xff;
+            int out = y * outWidth;
+            for (int x = 0; x < outWidth; x++) {
+                int left = x0[x];
+                int right = Math.min(left + 1, width - 1);
+                int w = xWeight[x];
+                int upper = (luma[top + left] & 0xff) * (256 - w) + (luma[top + right] & 0xff) * w;
+                int lower = (luma[bottom + left] & 0xff) * (256 - w) + (luma[bottom + right] & 0xff) * w;
+                nv21[out + x] = (byte) ((upper * (256 - yWeight) + lower * yWeight + (1 << 15)) >> 16);
+            }
+        }
+        return nv21;
+    }
+
+    // NV21 needs even dimensions; drop the odd last row or column
+    private static int even(int size) {
+        return Math.max(2, size & ~1);
+    }
+
+    // BT.601 weights in fixed point; they sum to 256
+    private static int luma(int r, int g, int b) {
+        return (77 * r + 150 * g + 29 * b) >> 8;
+    }
+
+    private static void storeRow(byte[] luma, int offset, int[] sums, int samples) {
+        for (int x = 0; x < sums.length; x++) {
+            luma[offset + x] = (byte) (sums[x] / samples);
+        }
+    }
+
+    private int outputSize(int size, int longEdge) {
+        return even(longEdge <= maxLongEdge ? size : (int) ((long) size * maxLongEdge / longEdge));
+    }
+
+    private InputImage finish(byte[] luma, int lumaWidth, int lumaHeight) {
+        int longEdge = Math.max(lumaWidth, lumaHeight);
+        int width = outputSize(lumaWidth, longEdge);
+        int height = outputSize(lumaHeight, longEdge);
+        byte[] nv21 = resize(luma, lumaWidth, lumaHeight, width, height);
+        int pixels = width * height;
+        if (contrastMode == CONTRAST_NORMALIZE) {
+            normalize(nv21, pixels);
+        } else if (contrastMode == CONTRAST_BINARIZE) {
+            binarize(nv21, pixels);
+        }
+        Arrays.fill(nv21, pixels, nv21.length, NEUTRAL_CHROMA);
+        return InputImage.fromByteBuffer(ByteBuffer.wrap(nv21), width, height, 0, InputImage.IMAGE_FORMAT_NV21);
+    }
+
+    private static int[] histogram(byte[] luma, int pixels) {
+        int[] histogram = new int[256];
+        for (int i = 0; i < pixels; i++) {
+            histogram[luma[i] & 0xff]++;
+        }
+        return histogram;
+    }
+
+    private static void normalize(byte[] luma, int pixels) {
+        int[] histogram = histogram(luma, pixels);
+        int clip = pixels * CLIP_PERCENT / 100;
+        int low = 0;
+        for (int seen = 0; low < 255 && (seen += histogram[low]) <= clip; low++) {
+            // Walk up to the low percentile
+        }
+        int high = 255;
+        for (int seen = 0; high > 0 && (seen += histogram[high]) <= clip; high--) {
+            // Walk down to the high percentile
+        }
+        if (high - low < MIN_CONTRAST_RANGE) return;
+
+        byte[] lut = new byte[256];
+        for (int v = 0; v < 256; v++) {
+            int stretched = (v - low) * 255 / (high - low);
+            lut[v] = (byte) Math.max(0, Math.min(255, stretched));
+        }
+        applyLut(luma, pixels, lut);
+    }
+
+    private static void binarize(byte[] luma, int pixels) {
+        int[] histogram = histogram(luma, pixels);
+        long total = 0;
+        for (int v = 0; v < 256; v++) {
+            total += (long) v * histogram[v];
+        }
+
+        // Otsu: the threshold that maximizes the variance between the two classes
+        long sumBelow = 0;
+        int countBelow = 0;
+        double bestVariance = -1;
+        int threshold = 127;
+        for (int t = 0; t < 256; t++) {
+            countBelow += histogram[t];
+            if (countBelow == 0) continue;
+            int countAbove = pixels - countBelow;
+            if (countAbove == 0) break;
+            sumBelow += (long) t * histogram[t];
+            double meanBelow = (double) sumBelow / countBelow;
+            double meanAbove = (double) (total - sumBelow) / countAbove;
+            double variance = (double) countBelow * countAbove * (meanBelow - meanAbove) * (meanBelow - meanAbove);
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                threshold = t;
+            }
+        }
+
+        byte[] lut = new byte[256];
+        for (int v = 0; v < 256; v++) {
+            lut[v] = (byte) (v > threshold ? 255 : 0);
+        }
+        applyLut(luma, pixels, lut);
+    }
+
+    private static void applyLut(byte[] luma, int pixels, byte[] lut) {
+        for (int i = 0; i < pixels; i++) {
+            luma[i] = lut[luma[i] & 0xff];
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.paynotify.app;
+
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process event bus connecting capture (notification listener, screen
+ * OCR) to everything downstream of it. Events go into a preallocated ring;
+ * publishing claims a sequence with one atomic increment and never waits for
+ * consumers. Any number of threads may publish: a producer that laps the
+ * ring takes its slot over with a compare-and-set from the previous lap's
+ * sequence, so it waits only for that earlier producer to finish writing.
+ * Each subscriber runs on its own thread with its own sequence,
+ * and a subscriber that falls more than a ring behind skips ahead and
+ * counts the events it missed instead of holding up capture.
+ */
+public final class PaymentEventBus {
+    private static final String TAG = "PaymentEventBus";
+
+    public static final int TYPE_TRANSACTION = 1;
+    public static final int TYPE_SCREEN_CAPTURE = 2;
+    public static final int TYPE_PROJECTION_GRANTED = 3;
+    public static final int TYPE_ORDER_MATCHED = 4;
+
+    private static final int CAPACITY = 1024;
+    private static final int MASK = CAPACITY - 1;
+    private static final long WRITING = Long.MIN_VALUE;
+
+    private static final PaymentEventBus INSTANCE = new PaymentEventBus();
+
+    private final PaymentEvent[] slots = new PaymentEvent[CAPACITY];
+    // Sequence currently held by each slot, or WRITING while a producer fills it
+    private final AtomicLongArray slotSequences = new AtomicLongArray(CAPACITY);
+    private final AtomicLong claimSequence = new AtomicLong(0);
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    public interface Consumer {
+        /**
+         * Called on the subscriber's own thread. The event object is reused
+         * for the next delivery, so copy anything that must outlive the call.
+         */
+        void onEvent(PaymentEvent event);
+    }
+
+    public static PaymentEventBus get() {
+        return INSTANCE;
+    }
+
+    private PaymentEventBus() {
+        for (int i = 0; i < CAPACITY; i++) {
+            slots[i] = new PaymentEvent();
+            // As if lap -1 had been published, so the first producer of each slot can take it over
+            slotSequences.set(i, i - CAPACITY);
+        }
+    }
+
+    /**
+     * Publishes transactions that arrived together, such as the lines of
+     * one grouped notification, on consecutive sequence numbers so
+     * subscribers see them back to back and are woken once. They share the
+     * trace of the notification they came from.
+     */
+    public void publishTransactions(List<TransactionRecord> transactions, long traceId) {
+        int count = transactions.size();
+        if (count == 0) return;
+        long first = claimSequence.getAndAdd(count);
+        for (int i = 0; i < count; i++) {
+            TransactionRecord transaction = transactions.get(i);
+            fill(first + i, TYPE_TRANSACTION, transaction.packageName, transaction.postTime, transaction,
+                null, 0, null, null, traceId);
+        }
+        wakeSubscribers();
+    }
+
+    public void publishOrderMatched(TransactionRecord transaction, PendingOrderMatcher.Match match, long traceId) {
+        publish(TYPE_ORDER_MATCHED, transaction.packageName, transaction.postTime, transaction, null, 0, null, match,
+            traceId);
+    }
+
+    public void publishScreenCapture(Map<String, Object> ocrResult, long traceId) {
+        publish(TYPE_SCREEN_CAPTURE, null, System.currentTimeMillis(), null, ocrResult, 0, null, null, traceId);
+    }
+
+    public void publishProjectionGranted(int resultCode, Intent data) {
+        publish(TYPE_PROJECTION_GRANTED, null, System.currentTimeMillis(), null, null, resultCode, data, null,
+            PaymentTracer.NO_TRACE);
+    }
+
+    private void publish(int type, String packageName, long postTime,
+                         TransactionRecord transaction,
+                         Map<String, Object> ocrResult, int resultCode, Intent data,
+                         PendingOrderMatcher.Match orderMatch, long traceId) {
+        fill(claimSequence.getAndIncrement(), type, packageName, postTime, transaction, ocrResult,
+            resultCode, data, orderMatch, traceId);
+        wakeSubscribers();
+    }
+
+    private void fill(long sequence, int type, String packageName, long postTime,
+                      TransactionRecord transaction, Map<String, Object> ocrResult,
+                      int resultCode, Intent data, PendingOrderMatcher.Match orderMatch, long traceId) {
+        int index = (int) (sequence & MASK);
+
+        // compareAndSet is a full barrier, so the field stores below cannot move above the
+        // WRITING marker (there is no storeStoreFence on our minSdk). It also fails while the
+        // producer of the previous lap is still filling this slot, which we wait out.
+        long previousLap = sequence - CAPACITY;
+        while (!slotSequences.compareAndSet(index, previousLap, WRITING)) {
+            Thread.yield();
+        }
+        PaymentEvent slot = slots[index];
+        slot.type = type;
+        slot.sequence = sequence;
+        slot.packageName = packageName;
+        slot.postTime = postTime;
+        slot.transaction = transaction;
+        slot.ocrResult = ocrResult;
+        slot.resultCode = resultCode;
+        slot.data = data;
+        slot.orderMatch = orderMatch;
+        slot.traceId = traceId;
+        slot.publishedNanos = SystemClock.elapsedRealtimeNanos();
+        slotSequences.set(index, sequence);
+    }
+
+    private void wakeSubscribers() {
+        for (Subscription subscription : subscriptions) {
+            subscription.wake();
+        }
+    }
+
+    /**
+     * Starts delivering events published from now on to {@code consumer} on
+     * a dedicated thread.
+     */
+    public Subscription subscribe(String name, Consumer consumer) {
+        Subscription subscription = new Subscription(name, consumer, claimSequence.get());
+        subscriptions.add(subscription);
+        subscription.thread.start();
+        return subscription;
+    }
+
+    public void unsubscribe(Subscription subscription) {
+        if (subscription == null) return;
+        subscriptions.remove(subscription);
+        subscription.stop();
+    }
+
+    public final class Subscription implements Runnable {
+        private final String name;
+        private final Consumer consumer;
+        private final Thread thread;
+        private final String waitStage;
+        private final String deliverStage;
+        private final PaymentEvent current = new PaymentEvent();
+        private volatile boolean running = true;
+        private volatile boolean parked;
+        private volatile long copyFence;
+        private long nextSequence;
+        private volatile long delivered;
+        private volatile long missed;
+
+        private Subscription(String name, Consumer consumer, long startSequence) {
+            this.name = name;
+            this.consumer = consumer;
+            this.nextSequence = startSequence;
+            this.thread = new Thread(this, "EventBus-" + name);
+            this.thread.setDaemon(true);
+            this.waitStage = "bus.wait." + name;
+            this.deliverStage = "bus.deliver." + name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        public long getMissed() {
+            return missed;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                if (!poll()) {
+                    parked = true;
+                    // Re-check after advertising, so a publish in between is not slept through.
+                    // No timeout: publishers unpark us, and an idle app should not wake at all
+                    if (nextSequence >= claimSequence.get()) {
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                }
+            }
+        }
+
+        private boolean poll() {
+            long sequence = nextSequence;
+            int index = (int) (sequence & MASK);
+            long before = slotSequences.get(index);
+
+            if (before == WRITING || before < sequence) {
+                if (claimSequence.get() - sequence > CAPACITY) {
+                    skipAhead();
+                    return true;
+                }
+                // Not published yet
+                return false;
+            }
+            if (before > sequence) {
+                skipAhead();
+                return true;
+            }
+
+            current.copyFrom(slots[index]);
+            // The copy reads plain fields, which may otherwise be reordered past the
+            // re-check below. A volatile write keeps them before it (there is no
+            // loadLoadFence on our minSdk), and the volatile read after it is ordered too.
+            copyFence = sequence;
+            if (slotSequences.get(index) != sequence) {
+                // Producer lapped us while we were copying
+                skipAhead();
+                return true;
+            }
+
+            nextSequence = sequence + 1;
+            long start = PaymentTracer.begin(deliverStage);
+            PaymentTracer.record(current.traceId, waitStage, current.publishedNanos, start);
+            try {
+                consumer.onEvent(current);
+            } catch (Exception e) {
+                Log.e(TAG, "Subscriber " + name + " failed: " + e.getMessage());
+            } finally {
+                PaymentTracer.end(current.traceId, deliverStage, start);
+            }
+            delivered++;
+            current.clear();
+            return true;
+        }
+
+        private void skipAhead() {
+            long oldest = Math.max(nextSequence, claimSequence.get() - CAPACITY + 1);
+            missed += oldest - nextSequence;
+            Log.w(TAG, "Subscriber " + name + " fell behind, skipped " + (oldest - nextSequence) + " events");
+            nextSequence = oldest;
+        }
+
+        void wake() {
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public static final class PaymentEvent {
+        public int type;
+        public long sequence;
+        public String packageName;
+        public long postTime;
+        public TransactionRecord transaction;
+        public Map<String, Object> ocrResult;
+        public int resultCode;
+        public Intent data;
+        public PendingOrderMatcher.Match orderMatch;
+        // Trace of the notification or frame this event came from, or PaymentTracer.NO_TRACE
+        public long traceId;
+        public long publishedNanos;
+
+        void copyFrom(PaymentEvent other) {
+            type = other.type;
+            sequence = other.sequence;
+            packageName = other.packageName;
+            postTime = other.postTime;
+            transaction = other.transaction;
+            ocrResult = other.ocrResult;
+            resultCode = other.resultCode;
+            data = other.data;
+            orderMatch = other.orderMatch;
+            traceId = other.traceId;
+            publishedNanos = other.publishedNanos;
+        }
+
+        void clear() {
+            packageName = null;
+            transaction = null;
+            ocrResult = null;
+            data = null;
+            orderMatch = null;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.paynotify.app;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Subscribes the stages that sit behind capture to the PaymentEventBus:
+ * persistence of the rolling totals and sender index, payment alerts, the
+ * LAN push server, pending order matching, the recent-credit index for
+ * slip verification and pipeline metrics. The Flutter bridge subscribes itself from
+ * NotificationListenerPlugin because it follows the engine lifecycle.
+ */
+public final class PaymentPipeline {
+    private static final String TAG = "PaymentPipeline";
+
+    private static boolean started = false;
+    private static final Map<String, PaymentEventBus.Subscription> subscriptions = new HashMap<>();
+
+    private static final AtomicLong transactionCount = new AtomicLong();
+    private static final AtomicLong screenCaptureCount = new AtomicLong();
+    private static final AtomicLong lastLatencyMs = new AtomicLong();
+    private static final AtomicLong maxLatencyMs = new AtomicLong();
+
+    private PaymentPipeline() {
+    }
+
+    public static synchronized void start(Context context) {
+        if (started) return;
+        started = true;
+
+        Context appContext = context.getApplicationContext();
+        PaymentTracer.init(appContext);
+        PaymentEventBus bus = PaymentEventBus.get();
+
+        // Alerts show the day's totals, so they go out only after the totals include the payment
+        subscriptions.put("persistence", bus.subscribe("persistence", event -> {
+            if (event.type == PaymentEventBus.TYPE_TRANSACTION) {
+                DailyTotalsAggregator.getInstance(appContext).record(event.transaction);
+                TransactionAlertNotifier.getInstance(appContext).notifyTransaction(event.transaction);
+            }
+        }));
+
+        subscriptions.put("pos", bus.subscribe("pos", event -> {
+            PosEventServer posServer = PosEventServer.getInstance();
+            if (posServer != null && event.type == PaymentEventBus.TYPE_TRANSACTION) {
+                posServer.publish(event.transaction);
+            }
+        }));
+
+        subscriptions.put("senderIndex", bus.subscribe("senderIndex", event -> {
+            if (event.type == PaymentEventBus.TYPE_TRANSACTION) {
+                try {
+                    SenderIndex.getInstance(appContext).add(event.transaction);
+                } catch (IOException e) {
+                    Log.e(TAG, "Error opening sender index: " + e.getMessage());
+                }
+            }
+        }));
+
+        subscriptions.put("credits", bus.subscribe("credits", event -> {
+            if (event.type == PaymentEventBus.TYPE_TRANSACTION) {
+                CreditIndex.get().add(event.transaction);
+            }
+        }));
+
+        subscriptions.put("orders", bus.subscribe("orders", event -> {
+            if (event.type == PaymentEventBus.TYPE_TRANSACTION) {
+                PendingOrderMatcher.Match match = PendingOrderMatcher.get().match(event.transaction);
+                if (match != null) {
+                    bus.publishOrderMatched(event.transaction, match, event.traceId);
+                }
+            }
+        }));
+
+        subscriptions.put("metrics", bus.subscribe("metrics", PaymentPipeline::recordMetrics));
+
+        Log.i(TAG, "Payment pipeline started");
+    }
+
+    private static void recordMetrics(PaymentEventBus.PaymentEvent event) {
+        if (event.type == PaymentEventBus.TYPE_TRANSACTION) {
+            transactionCount.incrementAndGet();
+            long latency = System.currentTimeMillis() - event.postTime;
+            lastLatencyMs.set(latency);
+            long max;
+            while (latency > (max = maxLatencyMs.get()) && !maxLatencyMs.compareAndSet(max, latency)) {
+                // Retry until the max sticks
+            }
+        } else if (event.type == PaymentEventBus.TYPE_SCREEN_CAPTURE) {
+            screenCaptureCount.incrementAndGet();
+        }
+    }
+
+    public static synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("transactions", transactionCount.get());
+        metrics.put("screenCaptures", screenCaptureCount.get());
+        metrics.put("lastLatencyMs", lastLatencyMs.get());
+        metrics.put("maxLatencyMs", maxLatencyMs.get());
+
+        Map<String, Object> subscribers = new HashMap<>();
+        for (PaymentEventBus.Subscription subscription : subscriptions.values()) {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("delivered", subscription.getDelivered());
+            stats.put("missed", subscription.getMissed());
+            subscribers.put(subscription.getName(), stats);
+        }
+        metrics.put("subscribers", subscribers);
+        return metrics;
+    }
+}
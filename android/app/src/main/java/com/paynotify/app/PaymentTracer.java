@@ -0,0 +1,289 @@
+package com.paynotify.app;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-event tracing for the payment path. Every notification and OCR
+ * frame gets a trace ID that travels with it through the listener,
+ * processor, event bus and Flutter bridge. Each stage is marked with an
+ * android.os.Trace section, so it shows up in Perfetto and systrace, and
+ * its span is also appended to a Chrome trace JSON file that can be pulled
+ * off a device and opened in ui.perfetto.dev.
+ *
+ * Only one trace in SAMPLE_EVERY is written to the file, plus any span
+ * slower than SLOW_SPAN_NANOS whatever its trace, so the stage behind a
+ * delay a merchant reports is on disk even when its trace was not sampled.
+ * Spans are queued and written in the background once a second; the file
+ * rotates at MAX_FILE_BYTES and the last MAX_FILES files are kept.
+ */
+public final class PaymentTracer {
+    private static final String TAG = "PaymentTracer";
+    private static final String TRACE_DIR = "traces";
+    private static final String FILE_PREFIX = "paynotify_trace";
+    private static final long MAX_FILE_BYTES = 512 * 1024;
+    private static final int MAX_FILES = 3;
+    private static final int SAMPLE_EVERY = 8;
+    private static final long SLOW_SPAN_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    // Untraced work, e.g. SMS import, passes this as its trace ID
+    public static final long NO_TRACE = 0;
+
+    // Seeded from uptime so IDs from one run do not repeat those of the last
+    private static final AtomicLong nextTraceId = new AtomicLong(SystemClock.elapsedRealtime() << 16);
+    // Converts elapsedRealtimeNanos to wall-clock microseconds, so spans line up with reported times
+    private static final long wallOffsetMicros =
+        System.currentTimeMillis() * 1000 - SystemClock.elapsedRealtimeNanos() / 1000;
+
+    private static final ArrayBlockingQueue<Span> pending = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private static File traceDir;
+    private static ScheduledExecutorService writerExecutor;
+    // Written only on the writer thread
+    private static Writer writer;
+    private static long fileBytes;
+    private static final Set<Integer> namedThreads = new HashSet<>();
+
+    private PaymentTracer() {
+    }
+
+    /**
+     * Starts writing sampled spans under the app's external files dir,
+     * where {@code adb pull} can reach them without root.
+     */
+    public static synchronized void init(Context context) {
+        if (writerExecutor != null) return;
+        File dir = context.getExternalFilesDir(TRACE_DIR);
+        if (dir == null) {
+            dir = new File(context.getFilesDir(), TRACE_DIR);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "Cannot create trace directory " + dir);
+            return;
+        }
+        traceDir = dir;
+        writerExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "PaymentTracer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writerExecutor.scheduleWithFixedDelay(PaymentTracer::drain,
+            FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static long newTrace() {
+        return nextTraceId.incrementAndGet();
+    }
+
+    public static boolean isSampled(long traceId) {
+        return traceId != NO_TRACE && traceId % SAMPLE_EVERY == 0;
+    }
+
+    public static String format(long traceId) {
+        return Long.toHexString(traceId);
+    }
+
+    /**
+     * Opens a Trace section for {@code stage} on the calling thread and
+     * returns the start time to pass to {@link #end}.
+     */
+    public static long begin(String stage) {
+        Trace.beginSection(stage);
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /** Closes the section opened by {@link #begin} on this thread and records its span. */
+    public static void end(long traceId, String stage, long startNanos) {
+        Trace.endSection();
+        record(traceId, stage, startNanos, SystemClock.elapsedRealtimeNanos());
+    }
+
+    /**
+     * Records a span that started on another thread or before the event
+     * reached us, such as time spent queued. These have no Trace section
+     * since sections cannot cross threads.
+     */
+    public static void record(long traceId, String stage, long startNanos, long endNanos) {
+        long duration = endNanos - startNanos;
+        if (traceId == NO_TRACE || (!isSampled(traceId) && duration < SLOW_SPAN_NANOS)) {
+            return;
+        }
+        Thread thread = Thread.currentThread();
+        Span span = new Span(traceId, stage, startNanos, duration, Process.myTid(), thread.getName());
+        if (!pending.offer(span)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /** Start time in elapsedRealtimeNanos of something stamped with a wall-clock time. */
+    public static long nanosAt(long wallTimeMillis) {
+        return (wallTimeMillis * 1000 - wallOffsetMicros) * 1000;
+    }
+
+    /**
+     * Writes out everything queued and returns the trace files, oldest
+     * first. Blocks on the writer, so call it off the main thread.
+     */
+    public static List<String> flush() {
+        List<String> paths = new ArrayList<>();
+        ScheduledExecutorService executor;
+        synchronized (PaymentTracer.class) {
+            executor = writerExecutor;
+        }
+        if (executor == null) return paths;
+        try {
+            executor.submit(PaymentTracer::drain).get();
+        } catch (Exception e) {
+            Log.e(TAG, "Error flushing trace: " + e.getMessage());
+        }
+        for (int i = MAX_FILES - 1; i >= 0; i--) {
+            File file = traceFile(i);
+            if (file.exists()) {
+                paths.add(file.getAbsolutePath());
+            }
+        }
+        return paths;
+    }
+
+    private static File traceFile(int generation) {
+        return new File(traceDir, generation == 0 ? FILE_PREFIX + ".json" : FILE_PREFIX + "." + generation + ".json");
+    }
+
+    private static void drain() {
+        long lost = dropped.getAndSet(0);
+        if (pending.isEmpty() && lost == 0) return;
+        try {
+            if (writer == null) {
+                openFile();
+            }
+            if (lost > 0) {
+                Log.w(TAG, "Trace queue full, dropped " + lost + " spans");
+            }
+            Span span;
+            while ((span = pending.poll()) != null) {
+                if (namedThreads.add(span.tid)) {
+                    write(String.format(Locale.US,
+                        "{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":%d,\"tid\":%d,\"args\":{\"name\":\"%s\"}},\n",
+                        Process.myPid(), span.tid, escape(span.threadName)));
+                }
+                write(String.format(Locale.US,
+                    "{\"ph\":\"X\",\"name\":\"%s\",\"cat\":\"payment\",\"ts\":%d,\"dur\":%d,\"pid\":%d,\"tid\":%d,"
+                        + "\"args\":{\"traceId\":\"%s\"}},\n",
+                    span.stage, wallOffsetMicros + span.startNanos / 1000, span.durationNanos / 1000,
+                    Process.myPid(), span.tid, format(span.traceId)));
+                if (fileBytes >= MAX_FILE_BYTES) {
+                    rotate();
+                }
+            }
+            writer.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing trace file: " + e.getMessage());
+            closeFile();
+        }
+    }
+
+    private static void write(String line) throws IOException {
+        writer.write(line);
+        fileBytes += utf8Length(line);
+    }
+
+    // Bytes the writer will encode, so rotation tracks the file size even for Thai thread names
+    private static int utf8Length(String line) {
+        int bytes = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < line.length()
+                && Character.isLowSurrogate(line.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    private static void openFile() throws IOException {
+        File file = traceFile(0);
+        fileBytes = file.length();
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        namedThreads.clear();
+        if (fileBytes == 0) {
+            // Chrome's JSON array format allows the closing bracket to be missing,
+            // so the file stays valid while it is being appended to
+            write("[\n");
+        }
+    }
+
+    private static void rotate() throws IOException {
+        closeFile();
+        traceFile(MAX_FILES - 1).delete();
+        for (int i = MAX_FILES - 2; i >= 0; i--) {
+            File file = traceFile(i);
+            if (file.exists() && !file.renameTo(traceFile(i + 1))) {
+                Log.w(TAG, "Cannot rotate " + file);
+            }
+        }
+        openFile();
+    }
+
+    private static void closeFile() {
+        if (writer == null) return;
+        try {
+            writer.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing trace file: " + e.getMessage());
+        }
+        writer = null;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static final class Span {
+        final long traceId;
+        final String stage;
+        final long startNanos;
+        final long durationNanos;
+        final int tid;
+        final String threadName;
+
+        Span(long traceId, String stage, long startNanos, long durationNanos, int tid, String threadName) {
+            this.traceId = traceId;
+            this.stage = stage;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.tid = tid;
+            this.threadName = threadName;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.paynotify.app;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Open orders waiting for payment, keyed by their exact amount in satang so
+ * an incoming credit finds its order with one hash probe no matter how many
+ * are open. Shops give each order a unique-satang amount; when two open
+ * orders do share an amount they are chained and matched oldest first, and
+ * the match reports how many other orders had the same amount.
+ *
+ * Orders live in parallel arrays reused through a free list. Each order is
+ * also linked into a per-minute expiry bucket, so expired orders are swept
+ * by walking only the buckets that have come due.
+ */
+public class PendingOrderMatcher {
+    private static final String TAG = "PendingOrderMatcher";
+
+    private static final long BUCKET_MS = 60 * 1000;
+    private static final int BUCKETS = 256;
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int NONE = -1;
+
+    private static final PendingOrderMatcher INSTANCE = new PendingOrderMatcher();
+
+    // Amount -> first and last order with that amount, open addressing with linear probing
+    private long[] tableKeys;
+    private int[] tableHeads;
+    private int[] tableTails;
+    private int tableSize;
+
+    // Order pool
+    private String[] orderIds;
+    private long[] amounts;
+    private long[] createdAt;
+    private long[] expiresAt;
+    private int[] nextSameAmount;
+    private int[] prevSameAmount;
+    private int[] nextInBucket;
+    private int[] prevInBucket;
+    private int[] bucketOf;
+    private int freeHead = NONE;
+    private int poolUsed = 0;
+
+    private final int[] bucketHeads = new int[BUCKETS];
+    private long sweptBucket = Long.MIN_VALUE;
+
+    private final Map<String, Integer> slotsById = new HashMap<>();
+
+    public static PendingOrderMatcher get() {
+        return INSTANCE;
+    }
+
+    private PendingOrderMatcher() {
+        allocateTable(256);
+        allocatePool(128);
+        Arrays.fill(bucketHeads, NONE);
+    }
+
+    public static final class Match {
+        public final String orderId;
+        public final long amountSatang;
+        public final long orderCreatedAt;
+        // Other open orders with the same amount, left waiting
+        public final int otherCandidates;
+
+        Match(String orderId, long amountSatang, long orderCreatedAt, int otherCandidates) {
+            this.orderId = orderId;
+            this.amountSatang = amountSatang;
+            this.orderCreatedAt = orderCreatedAt;
+            this.otherCandidates = otherCandidates;
+        }
+    }
+
+    /**
+     * Adds or replaces an open order. Returns false if the amount is not
+     * positive or the order has already expired.
+     */
+    public synchronized boolean addOrder(String orderId, long amountSatang, long expiresAtMillis) {
+        long now = System.currentTimeMillis();
+        if (orderId == null || amountSatang <= 0 || expiresAtMillis <= now) {
+            return false;
+        }
+        sweep(now);
+        removeOrder(orderId);
+
+        int order = allocateOrder();
+        orderIds[order] = orderId;
+        amounts[order] = amountSatang;
+        createdAt[order] = now;
+        expiresAt[order] = expiresAtMillis;
+        linkAmount(order);
+        linkBucket(order, Math.min(expiresAtMillis / BUCKET_MS, now / BUCKET_MS + BUCKETS - 1));
+        slotsById.put(orderId, order);
+        return true;
+    }
+
+    public synchronized boolean removeOrder(String orderId) {
+        Integer order = slotsById.get(orderId);
+        if (order == null) return false;
+        release(order);
+        return true;
+    }
+
+    public synchronized int getOpenOrderCount() {
+        return slotsById.size();
+    }
+
+    /**
+     * Claims the oldest open order whose amount equals the credit and that
+     * was created no later than the credit was posted, or returns null if
+     * none is waiting. A credit can never pay for an order placed after it.
+     */
+    public synchronized Match match(TransactionRecord transaction) {
+        long now = System.currentTimeMillis();
+        sweep(now);
+
+        int index = findIndex(transaction.amountSatang);
+        if (index < 0) return null;
+
+        int order = tableHeads[index];
+        while (order != NONE && expiresAt[order] <= now) {
+            // Expired but its bucket has not come due in this minute yet
+            int next = nextSameAmount[order];
+            release(order);
+            order = next;
+        }
+        while (order != NONE && !payable(order, transaction.postTime, now)) {
+            order = nextSameAmount[order];
+        }
+        if (order == NONE) return null;
+
+        int others = 0;
+        for (int other = nextSameAmount[order]; other != NONE; other = nextSameAmount[other]) {
+            if (payable(other, transaction.postTime, now)) {
+                others++;
+            }
+        }
+        Match match = new Match(orderIds[order], amounts[order], createdAt[order], others);
+        release(order);
+        if (others > 0) {
+            Log.w(TAG, "Matched order " + match.orderId + " with " + others + " other orders of the same amount");
+        }
+        return match;
+    }
+
+    private boolean payable(int order, long postTime, long now) {
+        return expiresAt[order] > now && createdAt[order] <= postTime;
+    }
+
+    private void sweep(long now) {
+        long currentBucket = now / BUCKET_MS;
+        if (sweptBucket == Long.MIN_VALUE || currentBucket - sweptBucket > BUCKETS) {
+            sweptBucket = currentBucket - BUCKETS;
+        }
+        // Buckets strictly before the current one have fully expired
+        while (sweptBucket < currentBucket - 1) {
+            sweptBucket++;
+            int bucket = (int) Math.floorMod(sweptBucket, (long) BUCKETS);
+            int order = bucketHeads[bucket];
+            while (order != NONE) {
+                int next = nextInBucket[order];
+                if (expiresAt[order] <= now) {
+                    release(order);
+                } else {
+                    // Expires past the ring horizon, move it to the farthest bucket
+                    unlinkBucket(order);
+                    linkBucket(order, Math.min(expiresAt[order] / BUCKET_MS, currentBucket + BUCKETS - 1));
+                }
+                order = next;
+            }
+        }
+    }
+
+    private void release(int order) {
+        slotsById.remove(orderIds[order]);
+        unlinkAmount(order);
+        unlinkBucket(order);
+        orderIds[order] = null;
+        nextSameAmount[order] = freeHead;
+        freeHead = order;
+    }
+
+    private int allocateOrder() {
+        if (freeHead != NONE) {
+            int order = freeHead;
+            freeHead = nextSameAmount[order];
+            return order;
+        }
+        if (poolUsed == orderIds.length) {
+            allocatePool(orderIds.length * 2);
+        }
+        return poolUsed++;
+    }
+
+    private void linkAmount(int order) {
+        long amount = amounts[order];
+        if ((tableSize + 1) * 2 > tableKeys.length) {
+            rehash(tableKeys.length * 2);
+        }
+        nextSameAmount[order] = NONE;
+        int index = findIndex(amount);
+        if (index >= 0) {
+            // Same amount already open: append so older orders match first
+            int tail = tableTails[index];
+            nextSameAmount[tail] = order;
+            prevSameAmount[order] = tail;
+            tableTails[index] = order;
+            return;
+        }
+        int mask = tableKeys.length - 1;
+        index = hash(amount) & mask;
+        while (tableKeys[index] != EMPTY) {
+            index = (index + 1) & mask;
+        }
+        tableKeys[index] = amount;
+        tableHeads[index] = order;
+        tableTails[index] = order;
+        prevSameAmount[order] = NONE;
+        tableSize++;
+    }
+
+    private void unlinkAmount(int order) {
+        int index = findIndex(amounts[order]);
+        int prev = prevSameAmount[order];
+        int next = nextSameAmount[order];
+        if (prev != NONE) {
+            nextSameAmount[prev] = next;
+        } else {
+            tableHeads[index] = next;
+        }
+        if (next != NONE) {
+            prevSameAmount[next] = prev;
+        } else {
+            tableTails[index] = prev;
+        }
+        if (tableHeads[index] == NONE) {
+            deleteIndex(index);
+        }
+    }
+
+    private void linkBucket(int order, long bucketNumber) {
+        int bucket = (int) Math.floorMod(bucketNumber, (long) BUCKETS);
+        int head = bucketHeads[bucket];
+        bucketOf[order] = bucket;
+        prevInBucket[order] = NONE;
+        nextInBucket[order] = head;
+        if (head != NONE) {
+            prevInBucket[head] = order;
+        }
+        bucketHeads[bucket] = order;
+    }
+
+    private void unlinkBucket(int order) {
+        int prev = prevInBucket[order];
+        int next = nextInBucket[order];
+        if (prev != NONE) {
+            nextInBucket[prev] = next;
+        } else {
+            bucketHeads[bucketOf[order]] = next;
+        }
+        if (next != NONE) {
+            prevInBucket[next] = prev;
+        }
+    }
+
+    private int findIndex(long amount) {
+        int mask = tableKeys.length - 1;
+        int index = hash(amount) & mask;
+        while (tableKeys[index] != EMPTY) {
+            if (tableKeys[index] == amount) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Backward-shift deletion keeps probe chains intact without tombstones
+    private void deleteIndex(int index) {
+        int mask = tableKeys.length - 1;
+        int hole = index;
+        int probe = (hole + 1) & mask;
+        while (tableKeys[probe] != EMPTY) {
+            int home = hash(tableKeys[probe]) & mask;
+            if (((probe - home) & mask) >= ((probe - hole) & mask)) {
+                tableKeys[hole] = tableKeys[probe];
+                tableHeads[hole] = tableHeads[probe];
+                tableTails[hole] = tableTails[probe];
+                hole = probe;
+            }
+            probe = (probe + 1) & mask;
+        }
+        tableKeys[hole] = EMPTY;
+        tableSize--;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = tableKeys;
+        int[] oldHeads = tableHeads;
+        int[] oldTails = tableTails;
+        allocateTable(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+            int index = hash(oldKeys[i]) & mask;
+            while (tableKeys[index] != EMPTY) {
+                index = (index + 1) & mask;
+            }
+            tableKeys[index] = oldKeys[i];
+            tableHeads[index] = oldHeads[i];
+            tableTails[index] = oldTails[i];
+            tableSize++;
+        }
+    }
+
+    private void allocateTable(int capacity) {
+        tableKeys = new long[capacity];
+        tableHeads = new int[capacity];
+        tableTails = new int[capacity];
+        Arrays.fill(tableKeys, EMPTY);
+        tableSize = 0;
+    }
+
+    private void allocatePool(int capacity) {
+        int old = orderIds != null ? orderIds.length : 0;
+        orderIds = orderIds != null ? Arrays.copyOf(orderIds, capacity) : new String[capacity];
+        amounts = amounts != null ? Arrays.copyOf(amounts, capacity) : new long[capacity];
+        createdAt = createdAt != null ? Arrays.copyOf(createdAt, capacity) : new long[capacity];
+        expiresAt = expiresAt != null ? Arrays.copyOf(expiresAt, capacity) : new long[capacity];
+        nextSameAmount = nextSameAmount != null ? Arrays.copyOf(nextSameAmount, capacity) : new int[capacity];
+        prevSameAmount = prevSameAmount != null ? Arrays.copyOf(prevSameAmount, capacity) : new int[capacity];
+        nextInBucket = nextInBucket != null ? Arrays.copyOf(nextInBucket, capacity) : new int[capacity];
+        prevInBucket = prevInBucket != null ? Arrays.copyOf(prevInBucket, capacity) : new int[capacity];
+        bucketOf = bucketOf != null ? Arrays.copyOf(bucketOf, capacity) : new int[capacity];
+        Log.d(TAG, "Order pool grown from " + old + " to " + capacity);
+    }
+
+    private static int hash(long amount) {
+        // Satang amounts are dense and sequential; mix so neighbours spread out
+        long h = amount * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
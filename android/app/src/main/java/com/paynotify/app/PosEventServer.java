@@ -0,0 +1,423 @@
+package com.paynotify.app;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Streams accepted payments to POS terminals on the local network over a
+ * single selector thread, so the counter PC sees them without a cloud
+ * round-trip.
+ *
+ * Every frame is a 4-byte big-endian length followed by the payload; the
+ * first payload byte is the frame type. A client opens with HELLO carrying
+ * the session ID and last sequence number it saw, followed by the pairing
+ * token shown in the app, and the server answers with WELCOME and replays
+ * whatever it still holds after that sequence. If the session ID does not
+ * match, the whole backlog is replayed. A client that sends anything else
+ * first, a wrong token, or nothing within HELLO_TIMEOUT_MS is dropped
+ * before it sees any payment.
+ *
+ * The socket listens on every interface, because the phone's Wi-Fi address
+ * changes between networks and DHCP leases. Frames, the pairing token
+ * included, travel in clear text, so anyone on the same network can read
+ * payments once a POS has paired and can sniff the token during HELLO. Only
+ * run the server on a trusted shop network.
+ */
+public class PosEventServer {
+    private static final String TAG = "PosEventServer";
+
+    public static final int DEFAULT_PORT = 47800;
+
+    static final byte FRAME_HELLO = 0x01;
+    static final byte FRAME_WELCOME = 0x02;
+    static final byte FRAME_PAYMENT = 0x10;
+
+    private static final int BACKLOG_SIZE = 256;
+    private static final int CLIENT_BUFFER_SIZE = 256;
+    private static final int MAX_PENDING_BYTES_PER_CLIENT = 512 * 1024;
+    public static final int PAIRING_TOKEN_SIZE = 16;
+    private static final int HELLO_PAYLOAD_SIZE = 1 + 8 + 8 + PAIRING_TOKEN_SIZE;
+    private static final long HELLO_TIMEOUT_MS = 5000;
+    private static final long CLOSE_TIMEOUT_MS = 2000;
+    private static final int MAX_STRING_BYTES = 1024;
+
+    private static PosEventServer instance;
+
+    private final int port;
+    private final byte[] pairingToken;
+    private final long sessionId = System.currentTimeMillis();
+    private final ConcurrentLinkedQueue<byte[]> published = new ConcurrentLinkedQueue<>();
+    private final List<Client> clients = new ArrayList<>();
+
+    // Backlog ring of encoded frames, only touched by the selector thread
+    private final byte[][] backlog = new byte[BACKLOG_SIZE][];
+    private final long[] backlogSeqs = new long[BACKLOG_SIZE];
+    private long nextSeq = 1;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+    private volatile boolean running;
+
+    public static synchronized PosEventServer getInstance() {
+        return instance;
+    }
+
+    public static synchronized PosEventServer start(int port, byte[] pairingToken) throws IOException {
+        if (pairingToken == null || pairingToken.length != PAIRING_TOKEN_SIZE) {
+            throw new IllegalArgumentException("Pairing token must be " + PAIRING_TOKEN_SIZE + " bytes");
+        }
+        if (instance != null) {
+            return instance;
+        }
+        PosEventServer server = new PosEventServer(port, pairingToken.clone());
+        server.open();
+        instance = server;
+        return server;
+    }
+
+    public static synchronized void stop() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    private PosEventServer(int port, byte[] pairingToken) {
+        this.port = port;
+        this.pairingToken = pairingToken;
+    }
+
+    public int getPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : port;
+    }
+
+    public int getClientCount() {
+        synchronized (clients) {
+            return clients.size();
+        }
+    }
+
+    /**
+     * Queues a payment for every subscriber. Safe to call from any thread;
+     * encoding happens on the caller and the selector thread only copies
+     * references into client queues.
+     */
+    public void publish(TransactionRecord data) {
+        if (!running) return;
+        published.add(encodePayment(data));
+        selector.wakeup();
+    }
+
+    private void open() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        selectorThread = new Thread(this::runLoop, "PosEventServer");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+        Log.i(TAG, "POS event server listening on port " + getPort());
+    }
+
+    // The selector thread closes everything itself; waiting for it frees the port for the next start()
+    private void close() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (selectorThread != null && selectorThread != Thread.currentThread()) {
+            try {
+                selectorThread.join(CLOSE_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void runLoop() {
+        try {
+            while (running) {
+                long wait = untilNextHelloDeadline();
+                if (wait > 0) {
+                    selector.select(wait);
+                } else {
+                    // Nobody is pairing, so only a connection or a payment can need us
+                    selector.select();
+                }
+                dropUnpairedClients();
+                dispatchPublished();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            Client client = (Client) key.attachment();
+                            if (key.isReadable()) {
+                                read(client);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(client);
+                            }
+                        }
+                    } catch (IOException e) {
+                        if (key.attachment() instanceof Client) {
+                            disconnect((Client) key.attachment());
+                        }
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            Log.e(TAG, "POS event server stopped: " + e.getMessage());
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Client client = new Client(channel, SystemClock.elapsedRealtime() + HELLO_TIMEOUT_MS);
+            client.key = channel.register(selector, SelectionKey.OP_READ, client);
+            synchronized (clients) {
+                clients.add(client);
+            }
+        }
+    }
+
+    private void read(Client client) throws IOException {
+        if (client.channel.read(client.inbound) < 0) {
+            disconnect(client);
+            return;
+        }
+
+        ByteBuffer in = client.inbound;
+        in.flip();
+        while (in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (length <= 0 || length > CLIENT_BUFFER_SIZE - 4) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            if (in.remaining() < 4 + length) break;
+
+            in.getInt();
+            int frameEnd = in.position() + length;
+            byte type = in.get();
+            if (!client.subscribed) {
+                if (type != FRAME_HELLO || length < HELLO_PAYLOAD_SIZE) {
+                    throw new IOException("Expected HELLO from unpaired POS client");
+                }
+                long clientSession = in.getLong();
+                long lastSeq = in.getLong();
+                byte[] token = new byte[PAIRING_TOKEN_SIZE];
+                in.get(token);
+                if (!MessageDigest.isEqual(token, pairingToken)) {
+                    Log.w(TAG, "Rejecting POS client with a wrong pairing token");
+                    throw new IOException("Wrong pairing token");
+                }
+                onHello(client, clientSession, lastSeq);
+            }
+            in.position(frameEnd);
+        }
+        in.compact();
+    }
+
+    private void onHello(Client client, long clientSession, long lastSeq) {
+        long oldestSeq = Math.max(1, nextSeq - BACKLOG_SIZE);
+        long resumeFrom = clientSession == sessionId ? Math.max(lastSeq + 1, oldestSeq) : oldestSeq;
+
+        ByteBuffer welcome = ByteBuffer.allocate(4 + 1 + 8 + 8 + 8);
+        welcome.putInt(1 + 8 + 8 + 8).put(FRAME_WELCOME).putLong(sessionId).putLong(oldestSeq).putLong(nextSeq - 1);
+        client.enqueue(welcome.array());
+
+        for (long seq = resumeFrom; seq < nextSeq; seq++) {
+            int slot = (int) (seq % BACKLOG_SIZE);
+            if (backlogSeqs[slot] == seq) {
+                client.enqueue(backlog[slot]);
+            }
+        }
+        client.subscribed = true;
+        flushInterest(client);
+    }
+
+    private long untilNextHelloDeadline() {
+        long now = SystemClock.elapsedRealtime();
+        long wait = 0;
+        synchronized (clients) {
+            for (Client client : clients) {
+                if (!client.subscribed) {
+                    long remaining = Math.max(1, client.helloDeadline - now);
+                    wait = wait == 0 ? remaining : Math.min(wait, remaining);
+                }
+            }
+        }
+        return wait;
+    }
+
+    private void dropUnpairedClients() {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (clients) {
+            for (Client client : new ArrayList<>(clients)) {
+                if (!client.subscribed && now >= client.helloDeadline) {
+                    Log.w(TAG, "Dropping POS client that did not pair in time");
+                    disconnect(client);
+                }
+            }
+        }
+    }
+
+    private void dispatchPublished() {
+        byte[] frame;
+        while ((frame = published.poll()) != null) {
+            long seq = nextSeq++;
+            // Sequence numbers are assigned here so they follow dispatch order
+            ByteBuffer.wrap(frame).putLong(5, seq);
+            int slot = (int) (seq % BACKLOG_SIZE);
+            backlog[slot] = frame;
+            backlogSeqs[slot] = seq;
+
+            synchronized (clients) {
+                for (Client client : new ArrayList<>(clients)) {
+                    if (!client.subscribed) continue;
+                    if (client.pendingBytes + frame.length > MAX_PENDING_BYTES_PER_CLIENT) {
+                        Log.w(TAG, "Dropping POS client that stopped reading");
+                        disconnect(client);
+                        continue;
+                    }
+                    client.enqueue(frame);
+                    flushInterest(client);
+                }
+            }
+        }
+    }
+
+    private void write(Client client) throws IOException {
+        while (!client.outbound.isEmpty()) {
+            ByteBuffer head = client.outbound.peek();
+            int written = client.channel.write(head);
+            client.pendingBytes -= written;
+            if (head.hasRemaining()) {
+                // Socket buffer full, wait for the next OP_WRITE
+                return;
+            }
+            client.outbound.poll();
+        }
+        client.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void flushInterest(Client client) {
+        if (client.key.isValid() && !client.outbound.isEmpty()) {
+            client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void disconnect(Client client) {
+        synchronized (clients) {
+            clients.remove(client);
+        }
+        client.key.cancel();
+        try {
+            client.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void shutdown() {
+        synchronized (clients) {
+            for (Client client : new ArrayList<>(clients)) {
+                disconnect(client);
+            }
+        }
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing POS event server: " + e.getMessage());
+        }
+        Log.i(TAG, "POS event server closed");
+    }
+
+    // Payment payload: type, seq, postTime, amount in satang, then bank, sender and account strings
+    static byte[] encodePayment(TransactionRecord data) {
+        byte[] bank = utf8(data.bankName());
+        byte[] sender = utf8(data.senderInfo);
+        byte[] account = utf8(data.accountNumber);
+        int payloadLength = 1 + 8 + 8 + 8 + 2 + bank.length + 2 + sender.length + 2 + account.length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + payloadLength);
+        buffer.putInt(payloadLength);
+        buffer.put(FRAME_PAYMENT);
+        buffer.putLong(0);
+        buffer.putLong(data.postTime);
+        buffer.putLong(data.amountSatang);
+        buffer.putShort((short) bank.length).put(bank);
+        buffer.putShort((short) sender.length).put(sender);
+        buffer.putShort((short) account.length).put(account);
+        return buffer.array();
+    }
+
+    private static byte[] utf8(String value) {
+        if (value == null) return new byte[0];
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            // Back up over continuation bytes so the cut never splits a character
+            int end = MAX_STRING_BYTES;
+            while (end > 0 && (bytes[end] & 0xC0) == 0x80) {
+                end--;
+            }
+            byte[] truncated = new byte[end];
+            System.arraycopy(bytes, 0, truncated, 0, end);
+            return truncated;
+        }
+        return bytes;
+    }
+
+    private static class Client {
+        final SocketChannel channel;
+        final ByteBuffer inbound = ByteBuffer.allocate(CLIENT_BUFFER_SIZE);
+        final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+        final long helloDeadline;
+        SelectionKey key;
+        int pendingBytes;
+        boolean subscribed;
+
+        Client(SocketChannel channel, long helloDeadline) {
+            this.channel = channel;
+            this.helloDeadline = helloDeadline;
+        }
+
+        void enqueue(byte[] frame) {
+            // Frames are shared between clients, so each gets its own read position
+            outbound.add(ByteBuffer.wrap(frame));
+            pendingBytes += frame.length;
+        }
+    }
+}
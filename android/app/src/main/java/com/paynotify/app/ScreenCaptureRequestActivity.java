@@ -35,12 +35,7 @@ public class ScreenCaptureRequestActivity extends Activity {
         if (requestCode == REQUEST_MEDIA_PROJECTION) {
             if (resultCode == RESULT_OK) {
                 // Grant permission to service
-                ScreenCaptureService service = ScreenCaptureService.getInstance();
-                if (service != null) {
-                    service.onScreenCapturePermissionGranted(
-                        projectionManager.getMediaProjection(resultCode, data)
-                    );
-                }
+                PaymentEventBus.get().publishProjectionGranted(resultCode, data);
             } else {
                 Log.w(TAG, "Screen capture permission denied");
             }
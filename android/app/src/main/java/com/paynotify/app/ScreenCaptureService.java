@@ -3,34 +3,68 @@ package com.paynotify.app;
 import android.accessibilityservice.AccessibilityService;
 import android.accessibilityservice.AccessibilityServiceInfo;
 import android.content.Intent;
-import android.graphics.Bitmap;
 import android.graphics.PixelFormat;
 import android.hardware.display.DisplayManager;
 import android.hardware.display.VirtualDisplay;
 import android.media.ImageReader;
 import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityWindowInfo;
 import android.view.WindowManager;
 
-import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
+/**
+ * Captures the screen of banking apps for OCR. Accessibility events only
+ * schedule work: a burst of window changes is coalesced into one capture
+ * once the content has been quiet for SETTLE_DELAY_MS, each visit to a
+ * banking app gets at most MAX_FRAMES_PER_VISIT frames, and the virtual
+ * display is only attached to the ImageReader while a frame is wanted.
+ * Both are released as soon as no banking app window is on screen, which
+ * is checked on window changes and every VISIT_CHECK_MS during a visit.
+ */
 public class ScreenCaptureService extends AccessibilityService {
     private static final String TAG = "ScreenCaptureService";
+
+    private static final long SETTLE_DELAY_MS = 400;
+    private static final int MAX_FRAMES_PER_VISIT = 3;
+    private static final long PROJECTION_REQUEST_COOLDOWN_MS = 60 * 1000;
+    // Fallback for leaving a banking app, in case no window change is reported
+    private static final long VISIT_CHECK_MS = 1000;
+
     private MediaProjection mediaProjection;
     private VirtualDisplay virtualDisplay;
     private ImageReader imageReader;
     private OCRProcessor ocrProcessor;
-    private boolean isCapturing = false;
-    private static final String[] TARGET_PACKAGES = {
+    private PaymentEventBus.Subscription projectionSubscription;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable captureFrame = this::captureFrame;
+    private final Runnable checkVisit = this::checkVisit;
+
+    // Scheduler state, only touched on the main thread
+    private boolean inBankingApp = false;
+    private boolean frameRequested = false;
+    private int framesThisVisit = 0;
+    private long lastProjectionRequest = -PROJECTION_REQUEST_COOLDOWN_MS;
+
+    private static final Set<String> TARGET_PACKAGES = new HashSet<>(Arrays.asList(
         "com.scb.phone",
         "com.kasikorn.retail.mbanking",
         "com.ktb.netbank",
-        "com.bbl.mobilebanking",
+        "com.bbl.mobilebanking"
         // Add more banking apps
-    };
+    ));
 
     @Override
     protected void onServiceConnected() {
@@ -38,85 +72,182 @@ public class ScreenCaptureService extends AccessibilityService {
         
         AccessibilityServiceInfo info = new AccessibilityServiceInfo();
         info.eventTypes = AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED | 
-                         AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED;
+                         AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED |
+                         AccessibilityEvent.TYPE_WINDOWS_CHANGED;
         info.feedbackType = AccessibilityServiceInfo.FEEDBACK_GENERIC;
+        info.flags = AccessibilityServiceInfo.FLAG_INCLUDE_NOT_IMPORTANT_VIEWS |
+                     AccessibilityServiceInfo.FLAG_REPORT_VIEW_IDS |
+                     AccessibilityServiceInfo.FLAG_RETRIEVE_INTERACTIVE_WINDOWS;
         info.notificationTimeout = 100;
-        info.packageNames = TARGET_PACKAGES;
+        // Content changes from other apps would wake us for nothing; leaving is read from the window list
+        info.packageNames = TARGET_PACKAGES.toArray(new String[0]);
         
         this.setServiceInfo(info);
         ocrProcessor = new OCRProcessor(this);
+
+        // ScreenCaptureRequestActivity hands the projection grant over the event bus
+        PaymentPipeline.start(this);
+        projectionSubscription = PaymentEventBus.get().subscribe("projection", event -> {
+            if (event.type == PaymentEventBus.TYPE_PROJECTION_GRANTED) {
+                int resultCode = event.resultCode;
+                Intent data = event.data;
+                mainHandler.post(() -> onProjectionGranted(resultCode, data));
+            }
+        });
         
         Log.i(TAG, "ScreenCaptureService connected");
     }
 
+    @Override
+    public void onDestroy() {
+        PaymentEventBus.get().unsubscribe(projectionSubscription);
+        projectionSubscription = null;
+        stopScreenCapture();
+        super.onDestroy();
+    }
+
     @Override
     public void onAccessibilityEvent(AccessibilityEvent event) {
-        if (!isCapturing && isBankingApp(event.getPackageName().toString())) {
+        if (event.getEventType() == AccessibilityEvent.TYPE_WINDOWS_CHANGED) {
+            checkVisit();
+            return;
+        }
+        CharSequence packageName = event.getPackageName();
+        if (packageName == null || !TARGET_PACKAGES.contains(packageName.toString())) return;
+
+        if (!inBankingApp) {
+            startVisit();
+        }
+        scheduleCapture();
+    }
+
+    private void startVisit() {
+        inBankingApp = true;
+        framesThisVisit = 0;
+        mainHandler.postDelayed(checkVisit, VISIT_CHECK_MS);
+        if (mediaProjection == null) {
+            requestProjection();
+        } else {
             startScreenCapture();
         }
     }
 
-    private boolean isBankingApp(String packageName) {
-        for (String targetPackage : TARGET_PACKAGES) {
-            if (targetPackage.equals(packageName)) {
+    private void endVisit() {
+        inBankingApp = false;
+        mainHandler.removeCallbacks(captureFrame);
+        mainHandler.removeCallbacks(checkVisit);
+        releaseCaptureSurfaces();
+    }
+
+    private void checkVisit() {
+        mainHandler.removeCallbacks(checkVisit);
+        if (!inBankingApp) return;
+        if (!bankingAppOnScreen()) {
+            endVisit();
+            return;
+        }
+        mainHandler.postDelayed(checkVisit, VISIT_CHECK_MS);
+    }
+
+    /**
+     * Whether any application window belongs to a banking app. The IME,
+     * system UI and heads-up notifications are not application windows, so
+     * they do not end a visit; in split screen either half counts.
+     */
+    private boolean bankingAppOnScreen() {
+        List<AccessibilityWindowInfo> windows = getWindows();
+        if (windows.isEmpty()) {
+            // Window list not available; fall back to the active window
+            AccessibilityNodeInfo root = getRootInActiveWindow();
+            return root == null || isTargetRoot(root);
+        }
+        for (AccessibilityWindowInfo window : windows) {
+            if (window.getType() != AccessibilityWindowInfo.TYPE_APPLICATION) continue;
+            AccessibilityNodeInfo root = window.getRoot();
+            if (root != null && isTargetRoot(root)) {
                 return true;
             }
         }
         return false;
     }
 
+    private static boolean isTargetRoot(AccessibilityNodeInfo root) {
+        CharSequence packageName = root.getPackageName();
+        root.recycle();
+        return packageName != null && TARGET_PACKAGES.contains(packageName.toString());
+    }
+
+    private void scheduleCapture() {
+        if (framesThisVisit >= MAX_FRAMES_PER_VISIT) return;
+        // Restart the settle timer on every change so a storm yields one frame
+        mainHandler.removeCallbacks(captureFrame);
+        mainHandler.postDelayed(captureFrame, SETTLE_DELAY_MS);
+    }
+
+    private void captureFrame() {
+        if (!inBankingApp || virtualDisplay == null || imageReader == null || frameRequested) return;
+        frameRequested = true;
+        virtualDisplay.setSurface(imageReader.getSurface());
+    }
+
+    private void requestProjection() {
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastProjectionRequest < PROJECTION_REQUEST_COOLDOWN_MS) {
+            // Already asked recently; don't pop the consent dialog on every event
+            return;
+        }
+        lastProjectionRequest = now;
+
+        Intent intent = new Intent(this, ScreenCaptureRequestActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        startActivity(intent);
+    }
+
     private void startScreenCapture() {
-        if (isCapturing) return;
+        if (imageReader != null) return;
         
         try {
             DisplayMetrics metrics = getResources().getDisplayMetrics();
             int width = metrics.widthPixels;
             int height = metrics.heightPixels;
-            int density = metrics.densityDpi;
 
             imageReader = ImageReader.newInstance(width, height, PixelFormat.RGBA_8888, 2);
             imageReader.setOnImageAvailableListener(reader -> {
                 try (android.media.Image image = reader.acquireLatestImage()) {
-                    if (image != null) {
+                    if (image != null && frameRequested) {
+                        // One frame per request; detach so the display stops rendering into us
+                        frameRequested = false;
+                        framesThisVisit++;
+                        if (virtualDisplay != null) {
+                            virtualDisplay.setSurface(null);
+                        }
                         processScreenImage(image);
                     }
                 } catch (Exception e) {
                     Log.e(TAG, "Error processing screen image: " + e.getMessage());
                 }
-            }, null);
-
-            MediaProjectionManager projectionManager = 
-                (MediaProjectionManager) getSystemService(MEDIA_PROJECTION_SERVICE);
-            
-            // Request screen capture permission if not granted
-            Intent intent = new Intent(this, ScreenCaptureRequestActivity.class);
-            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            startActivity(intent);
-            
-            isCapturing = true;
+            }, mainHandler);
 
+            if (virtualDisplay == null) {
+                setupVirtualDisplay();
+            }
         } catch (Exception e) {
             Log.e(TAG, "Error starting screen capture: " + e.getMessage());
+            releaseCaptureSurfaces();
         }
     }
 
     private void processScreenImage(android.media.Image image) {
-        ByteBuffer buffer = image.getPlanes()[0].getBuffer();
-        byte[] bytes = new byte[buffer.remaining()];
-        buffer.get(bytes);
-        
-        // Convert to bitmap
-        int width = image.getWidth();
-        int height = image.getHeight();
-        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(bytes));
-        
-        // Process with OCR
-        ocrProcessor.processScreenBitmap(bitmap)
+        long traceId = PaymentTracer.newTrace();
+        android.media.Image.Plane plane = image.getPlanes()[0];
+
+        // Process with OCR; the plane is read into a small luminance buffer, no full-size Bitmap
+        ocrProcessor.processScreenFrame(plane.getBuffer(), image.getWidth(), image.getHeight(),
+                plane.getRowStride(), plane.getPixelStride(), traceId)
             .thenAccept(result -> {
                 if (result != null && result.containsKey("amount")) {
-                    // Found transaction data, notify Flutter
-                    NotificationListenerPlugin.sendScreenCaptureResult(result);
+                    // Found transaction data, notify Flutter and other subscribers
+                    PaymentEventBus.get().publishScreenCapture(result, traceId);
                 }
             })
             .exceptionally(e -> {
@@ -131,7 +262,10 @@ public class ScreenCaptureService extends AccessibilityService {
     }
 
     private void stopScreenCapture() {
-        isCapturing = false;
+        inBankingApp = false;
+        mainHandler.removeCallbacks(captureFrame);
+        mainHandler.removeCallbacks(checkVisit);
+        releaseCaptureSurfaces();
         if (virtualDisplay != null) {
             virtualDisplay.release();
             virtualDisplay = null;
@@ -140,28 +274,59 @@ public class ScreenCaptureService extends AccessibilityService {
             mediaProjection.stop();
             mediaProjection = null;
         }
+    }
+
+    private void releaseCaptureSurfaces() {
+        frameRequested = false;
+        if (virtualDisplay != null) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+                // A projection may only create one display from Android 14, so keep it detached
+                virtualDisplay.setSurface(null);
+            } else {
+                virtualDisplay.release();
+                virtualDisplay = null;
+            }
+        }
         if (imageReader != null) {
             imageReader.close();
             imageReader = null;
         }
     }
 
-    public void onScreenCapturePermissionGranted(MediaProjection projection) {
-        mediaProjection = projection;
-        setupVirtualDisplay();
+    private void onProjectionGranted(int resultCode, Intent data) {
+        MediaProjectionManager projectionManager =
+            (MediaProjectionManager) getSystemService(MEDIA_PROJECTION_SERVICE);
+        mediaProjection = projectionManager.getMediaProjection(resultCode, data);
+        mediaProjection.registerCallback(new MediaProjection.Callback() {
+            @Override
+            public void onStop() {
+                // Revoked by the user or the system; ask again on the next visit
+                mediaProjection = null;
+                releaseCaptureSurfaces();
+                if (virtualDisplay != null) {
+                    virtualDisplay.release();
+                    virtualDisplay = null;
+                }
+            }
+        }, mainHandler);
+        if (inBankingApp) {
+            startScreenCapture();
+            scheduleCapture();
+        }
     }
 
     private void setupVirtualDisplay() {
         DisplayMetrics metrics = getResources().getDisplayMetrics();
+        // Created detached; captureFrame attaches the ImageReader when a frame is wanted
         virtualDisplay = mediaProjection.createVirtualDisplay(
             "ScreenCapture",
             metrics.widthPixels,
             metrics.heightPixels,
             metrics.densityDpi,
             DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR,
-            imageReader.getSurface(),
+            null,
             null,
             null
         );
     }
-}
\ No newline at end of file
+}
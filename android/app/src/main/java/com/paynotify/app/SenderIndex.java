@@ -0,0 +1,449 @@
+package com.paynotify.app;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prefix index from normalized sender names to the payments they made, so
+ * "did Somchai pay?" is answered without scanning history. Accepted
+ * transactions are appended to a compact log file. Only the node where an
+ * indexed word ends heads a chain of log offsets, newest first, kept in one
+ * shared pool of primitive arrays, so each payment costs one posting per
+ * word rather than one per character. A prefix query walks the subtree
+ * under its node and merges those chains by offset, which is also log
+ * order. The trie is snapshotted next to the log and only entries appended
+ * after the snapshot are replayed on start.
+ */
+public class SenderIndex {
+    private static final String TAG = "SenderIndex";
+    private static final String LOG_FILE = "sender_index.log";
+    private static final String SNAPSHOT_FILE = "sender_index.bin";
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final long SNAPSHOT_DELAY_MS = 10000;
+
+    private static final int MAX_KEY_LENGTH = 24;
+    private static final int MAX_FIELD_BYTES = 255;
+    private static final String[] HONORIFICS = {
+        "นางสาว", "นาย", "นาง", "น.ส.", "คุณ", "mrs.", "mrs ", "mr.", "mr ", "ms.", "ms ", "miss "
+    };
+
+    private static SenderIndex instance;
+
+    private final FileChannel log;
+    private final AtomicFile snapshotFile;
+    private final ScheduledExecutorService snapshotExecutor = Executors.newSingleThreadScheduledExecutor();
+    // Log bytes already reflected in the trie
+    private long indexedLength = 0;
+    private boolean snapshotScheduled = false;
+
+    // Trie nodes in parallel arrays; node 0 is the root
+    private char[] nodeChars = new char[1024];
+    private int[] firstChild = new int[1024];
+    private int[] nextSibling = new int[1024];
+    // Head of each node's posting chain, or -1
+    private int[] postingHeads = new int[1024];
+    private int nodeCount = 1;
+
+    // Posting pool: log offset and the next (older) posting of the same node
+    private int[] postingOffsets = new int[4096];
+    private int[] postingNext = new int[4096];
+    private int postingCount = 0;
+
+    private final StringBuilder keyBuffer = new StringBuilder(MAX_KEY_LENGTH);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(4 + 8 + 8 + 1 + 2 * (2 + MAX_FIELD_BYTES));
+
+    public static synchronized SenderIndex getInstance(Context context) throws IOException {
+        if (instance == null) {
+            instance = new SenderIndex(new File(context.getFilesDir(), LOG_FILE));
+        }
+        return instance;
+    }
+
+    SenderIndex(File logFile) throws IOException {
+        log = new RandomAccessFile(logFile, "rw").getChannel();
+        snapshotFile = new AtomicFile(new File(logFile.getParentFile(), SNAPSHOT_FILE));
+        clear();
+        loadSnapshot();
+        rebuild();
+    }
+
+    public synchronized void add(TransactionRecord record) {
+        try {
+            long offset = log.size();
+            if (offset > Integer.MAX_VALUE - writeBuffer.capacity()) {
+                Log.w(TAG, "Sender index log is full, not indexing");
+                return;
+            }
+            writeBuffer.clear();
+            writeBuffer.putInt(0);
+            writeBuffer.putLong(record.postTime);
+            writeBuffer.putLong(record.amountSatang);
+            writeBuffer.put((byte) record.bank.ordinal());
+            putField(writeBuffer, record.senderInfo);
+            putField(writeBuffer, record.accountNumber);
+            writeBuffer.putInt(0, writeBuffer.position() - 4);
+            writeBuffer.flip();
+            while (writeBuffer.hasRemaining()) {
+                log.write(writeBuffer, offset + writeBuffer.position());
+            }
+            index(record.senderInfo, (int) offset);
+            indexedLength = offset + writeBuffer.limit();
+            scheduleSnapshot();
+        } catch (IOException e) {
+            Log.e(TAG, "Error appending to sender index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Most recent payments whose sender, or any word of it, starts with
+     * {@code query} after normalization, newest first.
+     */
+    public synchronized List<Map<String, Object>> search(String query, int limit) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        String key = normalize(query);
+        if (key.isEmpty()) return results;
+
+        int node = 0;
+        for (int i = 0; i < key.length() && node >= 0; i++) {
+            if (key.charAt(i) != ' ') {
+                node = findChild(node, key.charAt(i));
+            }
+        }
+        if (node <= 0) return results;
+
+        // Every word under this prefix ends somewhere in the subtree; merge their chains newest first
+        PriorityQueue<Integer> chains = new PriorityQueue<>(
+            (a, b) -> Integer.compare(postingOffsets[b], postingOffsets[a]));
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        pending.push(node);
+        while (!pending.isEmpty()) {
+            int current = pending.pop();
+            if (postingHeads[current] >= 0) {
+                chains.add(postingHeads[current]);
+            }
+            for (int child = firstChild[current]; child >= 0; child = nextSibling[child]) {
+                pending.push(child);
+            }
+        }
+
+        int lastOffset = -1;
+        while (!chains.isEmpty() && results.size() < limit) {
+            int posting = chains.poll();
+            if (postingNext[posting] >= 0) {
+                chains.add(postingNext[posting]);
+            }
+            int offset = postingOffsets[posting];
+            if (offset == lastOffset) {
+                // Two words of one sender both match the prefix
+                continue;
+            }
+            lastOffset = offset;
+            Map<String, Object> entry = readEntry(offset);
+            if (entry != null) {
+                results.add(entry);
+            }
+        }
+        return results;
+    }
+
+    // Replays log entries the trie does not cover yet, all of them without a snapshot
+    private void rebuild() throws IOException {
+        long size = log.size();
+        if (indexedLength > size) {
+            Log.w(TAG, "Sender index snapshot is ahead of the log, rebuilding");
+            clear();
+        }
+        long offset = indexedLength;
+        ByteBuffer header = ByteBuffer.allocate(4);
+        ByteBuffer body = ByteBuffer.allocate(writeBuffer.capacity());
+        int entries = 0;
+
+        while (offset + 4 <= size) {
+            header.clear();
+            log.read(header, offset);
+            int length = header.getInt(0);
+            if (length <= 0 || length > body.capacity() || offset + 4 + length > size) {
+                // Torn write at the tail from a crash; drop it
+                log.truncate(offset);
+                break;
+            }
+            body.clear();
+            body.limit(length);
+            log.read(body, offset + 4);
+            body.flip();
+            body.position(8 + 8 + 1);
+            index(getField(body), (int) offset);
+            offset += 4 + length;
+            entries++;
+        }
+        indexedLength = offset;
+        if (entries > 0) {
+            scheduleSnapshot();
+        }
+        Log.i(TAG, "Replayed " + entries + " sender index entries, " + nodeCount + " nodes, "
+            + postingCount + " postings");
+    }
+
+    private void clear() {
+        Arrays.fill(firstChild, -1);
+        Arrays.fill(nextSibling, -1);
+        Arrays.fill(postingHeads, -1);
+        nodeCount = 1;
+        postingCount = 0;
+        indexedLength = 0;
+    }
+
+    private void scheduleSnapshot() {
+        if (snapshotScheduled) return;
+        snapshotScheduled = true;
+        snapshotExecutor.schedule(this::writeSnapshot, SNAPSHOT_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void writeSnapshot() {
+        FileOutputStream stream = null;
+        try {
+            stream = snapshotFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            synchronized (this) {
+                snapshotScheduled = false;
+                // The log must be on disk before a snapshot claims to cover it
+                log.force(false);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(MAX_KEY_LENGTH);
+                out.writeLong(indexedLength);
+                out.writeInt(nodeCount);
+                for (int i = 0; i < nodeCount; i++) {
+                    out.writeChar(nodeChars[i]);
+                    out.writeInt(firstChild[i]);
+                    out.writeInt(nextSibling[i]);
+                    out.writeInt(postingHeads[i]);
+                }
+                out.writeInt(postingCount);
+                for (int i = 0; i < postingCount; i++) {
+                    out.writeInt(postingOffsets[i]);
+                    out.writeInt(postingNext[i]);
+                }
+            }
+            out.flush();
+            snapshotFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing sender index snapshot: " + e.getMessage());
+            if (stream != null) {
+                snapshotFile.failWrite(stream);
+            }
+        }
+    }
+
+    private void loadSnapshot() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(snapshotFile.openRead()))) {
+            if (in.readInt() != SNAPSHOT_VERSION || in.readInt() != MAX_KEY_LENGTH) {
+                Log.w(TAG, "Discarding sender index snapshot with a different layout");
+                return;
+            }
+            long length = in.readLong();
+            int nodes = in.readInt();
+            ensureNodeCapacity(nodes);
+            for (int i = 0; i < nodes; i++) {
+                nodeChars[i] = in.readChar();
+                firstChild[i] = in.readInt();
+                nextSibling[i] = in.readInt();
+                postingHeads[i] = in.readInt();
+            }
+            int postings = in.readInt();
+            ensurePostingCapacity(postings);
+            for (int i = 0; i < postings; i++) {
+                postingOffsets[i] = in.readInt();
+                postingNext[i] = in.readInt();
+            }
+            nodeCount = nodes;
+            postingCount = postings;
+            indexedLength = length;
+        } catch (FileNotFoundException e) {
+            // First run, or the log predates snapshots; rebuild() replays it all
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error reading sender index snapshot: " + e.getMessage());
+            clear();
+        }
+    }
+
+    private Map<String, Object> readEntry(int offset) {
+        try {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            log.read(header, offset);
+            ByteBuffer body = ByteBuffer.allocate(header.getInt(0));
+            log.read(body, offset + 4);
+            body.flip();
+
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("timestamp", body.getLong());
+            long satang = body.getLong();
+            entry.put("amountSatang", satang);
+            entry.put("amount", satang / 100.0);
+            entry.put("bankName", Bank.fromOrdinal(body.get()).name());
+            entry.put("senderInfo", getField(body));
+            entry.put("accountNumber", getField(body));
+            return entry;
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading sender index entry: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void index(String sender, int offset) {
+        String key = normalize(sender);
+        // Index every word start so a last name finds the payment too
+        for (int start = 0; start < key.length(); start++) {
+            if (start == 0 || key.charAt(start - 1) == ' ') {
+                if (key.charAt(start) != ' ') {
+                    insert(key, start, offset);
+                }
+            }
+        }
+    }
+
+    private void insert(String key, int start, int offset) {
+        int node = 0;
+        int end = Math.min(key.length(), start + MAX_KEY_LENGTH);
+        for (int i = start; i < end; i++) {
+            char c = key.charAt(i);
+            if (c == ' ') continue;
+            int child = findChild(node, c);
+            if (child < 0) {
+                child = newNode(c);
+                nextSibling[child] = firstChild[node];
+                firstChild[node] = child;
+            }
+            node = child;
+        }
+        // Only the word end holds the posting; shorter prefixes find it through the subtree
+        if (node > 0) {
+            addPosting(node, offset);
+        }
+    }
+
+    private void addPosting(int node, int offset) {
+        int head = postingHeads[node];
+        if (head >= 0 && postingOffsets[head] == offset) {
+            // Two words of one sender share this prefix; list the payment once
+            return;
+        }
+        ensurePostingCapacity(postingCount + 1);
+        postingOffsets[postingCount] = offset;
+        postingNext[postingCount] = head;
+        postingHeads[node] = postingCount++;
+    }
+
+    private int findChild(int node, char c) {
+        for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+            if (nodeChars[child] == c) {
+                return child;
+            }
+        }
+        return -1;
+    }
+
+    private int newNode(char c) {
+        ensureNodeCapacity(nodeCount + 1);
+        nodeChars[nodeCount] = c;
+        return nodeCount++;
+    }
+
+    private void ensureNodeCapacity(int needed) {
+        int oldCapacity = nodeChars.length;
+        if (needed <= oldCapacity) return;
+        int capacity = Math.max(needed, oldCapacity + (oldCapacity >> 1));
+        nodeChars = Arrays.copyOf(nodeChars, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        postingHeads = Arrays.copyOf(postingHeads, capacity);
+        Arrays.fill(firstChild, oldCapacity, capacity, -1);
+        Arrays.fill(nextSibling, oldCapacity, capacity, -1);
+        Arrays.fill(postingHeads, oldCapacity, capacity, -1);
+    }
+
+    private void ensurePostingCapacity(int needed) {
+        int oldCapacity = postingOffsets.length;
+        if (needed <= oldCapacity) return;
+        // Grow by half rather than doubling so a large index does not overshoot by megabytes
+        int capacity = Math.max(needed, oldCapacity + (oldCapacity >> 1));
+        postingOffsets = Arrays.copyOf(postingOffsets, capacity);
+        postingNext = Arrays.copyOf(postingNext, capacity);
+    }
+
+    /**
+     * Lowercases Latin, drops Thai tone marks and honorifics and keeps only
+     * letters and digits, with single spaces between words. Queries go
+     * through the same function so typed names match extracted ones.
+     */
+    String normalize(String text) {
+        StringBuilder out = keyBuffer;
+        out.setLength(0);
+        if (text == null) return "";
+
+        String lower = text.trim().toLowerCase();
+        int start = 0;
+        for (String honorific : HONORIFICS) {
+            if (lower.startsWith(honorific)) {
+                start = honorific.length();
+                break;
+            }
+        }
+
+        boolean pendingSpace = false;
+        for (int i = start; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (c >= '็' && c <= '์') {
+                // Tone marks and similar signs are often left out when typing
+                continue;
+            }
+            if (Character.isLetterOrDigit(c) || (c >= 'ั' && c <= 'ฺ')) {
+                if (pendingSpace && out.length() > 0) {
+                    out.append(' ');
+                }
+                pendingSpace = false;
+                out.append(c);
+            } else if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+            }
+        }
+        return out.toString();
+    }
+
+    private static void putField(ByteBuffer buffer, String value) {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int length = Math.min(bytes.length, MAX_FIELD_BYTES);
+        buffer.putShort((short) length);
+        buffer.put(bytes, 0, length);
+    }
+
+    private static String getField(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
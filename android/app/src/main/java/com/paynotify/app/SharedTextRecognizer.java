@@ -0,0 +1,142 @@
+package com.paynotify.app;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.text.Text;
+import com.google.mlkit.vision.text.TextRecognition;
+import com.google.mlkit.vision.text.TextRecognizer;
+import com.google.mlkit.vision.text.latin.TextRecognizerOptions;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The one ML Kit text recognizer in the process, shared by every
+ * OCRProcessor and warmed up with a blank image when first created so the
+ * first real frame does not pay for model loading.
+ *
+ * Only one request runs at a time. Imported images wait in their own
+ * bounded FIFO lane and go first, since the user is waiting on them.
+ * Screen frames have a single slot: a newer frame replaces a pending
+ * older one, whose future completes with null, so the recognizer never
+ * works on a screen that is already gone.
+ */
+public final class SharedTextRecognizer {
+    private static final String TAG = "SharedTextRecognizer";
+    private static final int MAX_PENDING_IMPORTS = 8;
+    private static final int WARM_UP_SIZE = 32;
+
+    private static SharedTextRecognizer instance;
+
+    private final TextRecognizer recognizer = TextRecognition.getClient(TextRecognizerOptions.DEFAULT_OPTIONS);
+    // Recognition callbacks run here rather than on the main thread
+    private final ExecutorService callbackExecutor = Executors.newSingleThreadExecutor();
+
+    private final ArrayDeque<Request> pendingImports = new ArrayDeque<>(MAX_PENDING_IMPORTS);
+    private Request pendingFrame;
+    private boolean busy;
+
+    public static synchronized SharedTextRecognizer get() {
+        if (instance == null) {
+            instance = new SharedTextRecognizer();
+        }
+        return instance;
+    }
+
+    private SharedTextRecognizer() {
+        busy = true;
+        Bitmap blank = Bitmap.createBitmap(WARM_UP_SIZE, WARM_UP_SIZE, Bitmap.Config.ARGB_8888);
+        run(new Request(InputImage.fromBitmap(blank, 0), new CompletableFuture<>()));
+    }
+
+    /**
+     * Queues a live screen frame, superseding any frame still waiting.
+     */
+    public CompletableFuture<Text> submitFrame(InputImage image) {
+        Request request = new Request(image, new CompletableFuture<>());
+        Request superseded;
+        synchronized (this) {
+            superseded = pendingFrame;
+            pendingFrame = request;
+        }
+        if (superseded != null) {
+            superseded.future.complete(null);
+        }
+        dispatch();
+        return request.future;
+    }
+
+    /**
+     * Queues an imported image on the priority lane. Fails fast instead of
+     * growing without bound if imports arrive faster than they finish.
+     */
+    public CompletableFuture<Text> submitImport(InputImage image) {
+        Request request = new Request(image, new CompletableFuture<>());
+        synchronized (this) {
+            if (pendingImports.size() >= MAX_PENDING_IMPORTS) {
+                request.future.completeExceptionally(new RejectedExecutionException("OCR import queue is full"));
+                return request.future;
+            }
+            pendingImports.add(request);
+        }
+        dispatch();
+        return request.future;
+    }
+
+    private void dispatch() {
+        Request next;
+        synchronized (this) {
+            if (busy) return;
+            next = pendingImports.poll();
+            if (next == null) {
+                next = pendingFrame;
+                pendingFrame = null;
+            }
+            if (next == null) return;
+            busy = true;
+        }
+        run(next);
+    }
+
+    private void run(Request request) {
+        try {
+            recognizer.process(request.image)
+                .addOnSuccessListener(callbackExecutor, text -> {
+                    request.future.complete(text);
+                    finished();
+                })
+                .addOnFailureListener(callbackExecutor, e -> {
+                    Log.e(TAG, "Text recognition failed: " + e.getMessage());
+                    request.future.completeExceptionally(e);
+                    finished();
+                });
+        } catch (RuntimeException e) {
+            // process() threw before returning a task, so no listener will ever clear busy
+            Log.e(TAG, "Text recognition could not start: " + e.getMessage());
+            request.future.completeExceptionally(e);
+            finished();
+        }
+    }
+
+    private void finished() {
+        synchronized (this) {
+            busy = false;
+        }
+        dispatch();
+    }
+
+    private static final class Request {
+        final InputImage image;
+        final CompletableFuture<Text> future;
+
+        Request(InputImage image, CompletableFuture<Text> future) {
+            this.image = image;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.paynotify.app;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.Telephony;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Turns historical bank SMS into transactions. The inbox is streamed
+ * through one cursor, filtered to known bank senders in the query, and
+ * read PAGE_SIZE messages at a time; each page is parsed with the
+ * BankNotificationProcessor rules on a fork-join pool while the next page
+ * is read, then written in one database transaction. At most two pages
+ * are held at once, however large the inbox is.
+ *
+ * The bank comes from the sender ID. Only banks whose SMS wording the
+ * notification patterns fit are parsed; messages from the others are
+ * counted and logged rather than guessed at. A credit the notification
+ * listener already stored is not imported again: before a page is
+ * written, each record claims at most one stored row with the same
+ * amount and account within DUPLICATE_WINDOW_MS of it.
+ */
+public class SmsImportJob {
+    private static final String TAG = "SmsImportJob";
+    private static final int PAGE_SIZE = 500;
+    // Messages parsed sequentially by one fork-join leaf
+    private static final int PARSE_CHUNK = 32;
+    private static final String ID_PREFIX = "sms-";
+    private static final String DESCRIPTION = "Imported from SMS";
+    // An SMS and the app notification for the same credit arrive within minutes of each other
+    private static final long DUPLICATE_WINDOW_MS = TimeUnit.MINUTES.toMillis(5);
+
+    // SMS sender IDs used by Thai banks
+    private static final Map<String, Bank> BANK_SENDERS = new HashMap<String, Bank>() {{
+        put("kbank", Bank.KBANK);
+        put("k-bank", Bank.KBANK);
+        put("kplus", Bank.KBANK);
+        put("scb", Bank.SCB);
+        put("scbeasy", Bank.SCB);
+        put("scbconnect", Bank.SCB);
+        put("ktb", Bank.KTB);
+        put("krungthai", Bank.KTB);
+        put("bbl", Bank.BBL);
+        put("bangkokbank", Bank.BBL);
+        put("ttb", Bank.TTB);
+        put("krungsri", Bank.BAY);
+        put("gsb", Bank.GSB);
+        put("mymo", Bank.GSB);
+        put("baac", Bank.BAAC);
+        put("uob", Bank.UOB);
+    }};
+
+    // Banks whose SMS the notification patterns parse, mapped to the app whose patterns fit their wording
+    private static final Map<Bank, String> PATTERN_PACKAGES = new EnumMap<Bank, String>(Bank.class) {{
+        put(Bank.KBANK, "com.kasikorn.retail.mbanking");
+        put(Bank.SCB, "com.scb.phone");
+    }};
+
+    private static final String[] PROJECTION = {
+        Telephony.Sms.ADDRESS, Telephony.Sms.BODY, Telephony.Sms.DATE
+    };
+
+    public interface ProgressListener {
+        void onProgress(int scanned, int total, int imported);
+    }
+
+    private final ContentResolver contentResolver;
+    private final BankNotificationProcessor processor;
+    private final TransactionStore store;
+    private final Context context;
+
+    public SmsImportJob(Context context) {
+        this.context = context.getApplicationContext();
+        this.contentResolver = context.getContentResolver();
+        this.processor = new BankNotificationProcessor(context);
+        this.store = new TransactionStore(context);
+    }
+
+    /**
+     * Imports the last {@code days} days of bank SMS. Blocks until done, so
+     * call it off the main thread. Messages already imported are skipped.
+     */
+    public Map<String, Object> run(int days, ProgressListener listener) {
+        long since = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+        int scanned = 0;
+        int matched = 0;
+        int duplicates = 0;
+        int imported = 0;
+        AtomicIntegerArray unsupported = new AtomicIntegerArray(Bank.count());
+        // Loaded before anything is inserted, so a first-time seed from the database cannot count these rows twice
+        DailyTotalsAggregator totals = DailyTotalsAggregator.getInstance(context);
+        List<TransactionRecord> inserted = new ArrayList<>();
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        try (Cursor cursor = querySenders(since)) {
+            int total = cursor != null ? cursor.getCount() : 0;
+            ForkJoinTask<List<TransactionRecord>> parsing = null;
+
+            while (true) {
+                Sms[] page = cursor != null ? readPage(cursor) : new Sms[0];
+                scanned += page.length;
+
+                // Finish the previous page while this one was being read
+                if (parsing != null) {
+                    List<TransactionRecord> records = parsing.join();
+                    matched += records.size();
+                    List<TransactionRecord> fresh = dropDelivered(records);
+                    duplicates += records.size() - fresh.size();
+                    inserted.clear();
+                    if (store.insertBatch(fresh, ID_PREFIX, DESCRIPTION, inserted) < 0) {
+                        Log.w(TAG, "Transaction database does not exist yet, stopping import");
+                        break;
+                    }
+                    for (TransactionRecord record : inserted) {
+                        totals.record(record);
+                    }
+                    imported += inserted.size();
+                    if (listener != null) {
+                        listener.onProgress(scanned - page.length, total, imported);
+                    }
+                }
+                if (page.length == 0) break;
+                parsing = pool.submit(new ParseTask(page, 0, page.length, unsupported));
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "READ_SMS permission not granted: " + e.getMessage());
+        } finally {
+            pool.shutdownNow();
+            store.close();
+        }
+
+        int skipped = logUnsupported(unsupported);
+        Log.i(TAG, String.format(Locale.US, "SMS import: %d scanned, %d skipped, %d transactions, %d already stored, %d new",
+            scanned, skipped, matched, duplicates, imported));
+        Map<String, Object> result = new HashMap<>();
+        result.put("scanned", scanned);
+        result.put("skipped", skipped);
+        result.put("matched", matched);
+        result.put("duplicates", duplicates);
+        result.put("imported", imported);
+        return result;
+    }
+
+    /**
+     * Drops records that match a row the notification listener already
+     * stored: same amount and account, within DUPLICATE_WINDOW_MS. Each
+     * stored row absorbs at most one record, so two identical transfers
+     * that only one notification reported still import one of them.
+     * Rows from an earlier SMS import are left to the ID check in
+     * insertBatch.
+     */
+    private List<TransactionRecord> dropDelivered(List<TransactionRecord> records) {
+        if (records.isEmpty()) return records;
+        long from = Long.MAX_VALUE;
+        long to = Long.MIN_VALUE;
+        for (TransactionRecord record : records) {
+            from = Math.min(from, record.postTime);
+            to = Math.max(to, record.postTime);
+        }
+
+        List<TransactionStore.Row> stored = new ArrayList<>();
+        try (Cursor cursor = store.queryRange(from - DUPLICATE_WINDOW_MS, to + DUPLICATE_WINDOW_MS + 1)) {
+            while (cursor != null && cursor.moveToNext()) {
+                TransactionStore.Row row = TransactionStore.readRow(cursor, new TransactionStore.Row());
+                if (row.id == null || !row.id.startsWith(ID_PREFIX)) {
+                    stored.add(row);
+                }
+            }
+        }
+        if (stored.isEmpty()) return records;
+
+        boolean[] claimed = new boolean[stored.size()];
+        List<TransactionRecord> fresh = new ArrayList<>(records.size());
+        for (TransactionRecord record : records) {
+            String account = record.accountNumber != null ? record.accountNumber : "";
+            boolean delivered = false;
+            for (int i = 0; i < claimed.length && !delivered; i++) {
+                TransactionStore.Row row = stored.get(i);
+                if (!claimed[i]
+                        && Math.round(row.amount * 100) == record.amountSatang
+                        && account.equals(row.accountNumber != null ? row.accountNumber : "")
+                        && Math.abs(row.timestamp - record.postTime) <= DUPLICATE_WINDOW_MS) {
+                    claimed[i] = true;
+                    delivered = true;
+                }
+            }
+            if (!delivered) {
+                fresh.add(record);
+            }
+        }
+        return fresh;
+    }
+
+    private static int logUnsupported(AtomicIntegerArray unsupported) {
+        int skipped = 0;
+        StringBuilder banks = new StringBuilder();
+        for (int i = 0; i < unsupported.length(); i++) {
+            int count = unsupported.get(i);
+            if (count == 0) continue;
+            skipped += count;
+            banks.append(banks.length() > 0 ? ", " : "").append(Bank.fromOrdinal(i).name()).append('=').append(count);
+        }
+        if (skipped > 0) {
+            Log.w(TAG, "Skipped " + skipped + " SMS from banks without SMS patterns: " + banks);
+        }
+        return skipped;
+    }
+
+    private Cursor querySenders(long since) {
+        // Sender filtering happens in the provider so other SMS never leave it
+        StringBuilder selection = new StringBuilder(Telephony.Sms.DATE + " >= ? AND LOWER(")
+            .append(Telephony.Sms.ADDRESS).append(") IN (");
+        String[] args = new String[1 + BANK_SENDERS.size()];
+        args[0] = String.valueOf(since);
+        int i = 1;
+        for (String sender : BANK_SENDERS.keySet()) {
+            selection.append(i > 1 ? ", ?" : "?");
+            args[i++] = sender;
+        }
+        selection.append(')');
+
+        Uri inbox = Telephony.Sms.Inbox.CONTENT_URI;
+        return contentResolver.query(inbox, PROJECTION, selection.toString(), args, Telephony.Sms.DATE + " ASC");
+    }
+
+    private static Sms[] readPage(Cursor cursor) {
+        List<Sms> page = new ArrayList<>(PAGE_SIZE);
+        while (page.size() < PAGE_SIZE && cursor.moveToNext()) {
+            String address = cursor.getString(0);
+            String body = cursor.getString(1);
+            if (address == null || body == null) continue;
+            page.add(new Sms(address, body, cursor.getLong(2)));
+        }
+        return page.toArray(new Sms[0]);
+    }
+
+    private final class ParseTask extends RecursiveTask<List<TransactionRecord>> {
+        private final Sms[] page;
+        private final int from;
+        private final int to;
+        // Per Bank ordinal, messages from banks without patterns
+        private final AtomicIntegerArray unsupported;
+
+        ParseTask(Sms[] page, int from, int to, AtomicIntegerArray unsupported) {
+            this.page = page;
+            this.from = from;
+            this.to = to;
+            this.unsupported = unsupported;
+        }
+
+        @Override
+        protected List<TransactionRecord> compute() {
+            if (to - from <= PARSE_CHUNK) {
+                List<TransactionRecord> records = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    Sms sms = page[i];
+                    Bank bank = BANK_SENDERS.get(sms.address.toLowerCase(Locale.US));
+                    String packageName = PATTERN_PACKAGES.get(bank);
+                    if (packageName == null) {
+                        unsupported.incrementAndGet(bank != null ? bank.ordinal() : Bank.UNKNOWN.ordinal());
+                        continue;
+                    }
+                    records.addAll(processor.processNotificationBatch(packageName,
+                        sms.address, new CharSequence[]{sms.body}, new long[]{sms.date}, false));
+                }
+                return records;
+            }
+
+            int middle = (from + to) >>> 1;
+            ParseTask left = new ParseTask(page, from, middle, unsupported);
+            left.fork();
+            List<TransactionRecord> records = new ParseTask(page, middle, to, unsupported).compute();
+            // Keep inbox order: left half first
+            List<TransactionRecord> merged = left.join();
+            merged.addAll(records);
+            return merged;
+        }
+    }
+
+    private static final class Sms {
+        final String address;
+        final String body;
+        final long date;
+
+        Sms(String address, String body, long date) {
+            this.address = address;
+            this.body = body;
+            this.date = date;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.paynotify.app;
+
+/**
+ * Bounded, direct-mapped intern pool for strings that repeat across
+ * transactions such as sender names and account numbers. A colliding
+ * string simply replaces the cached one, so the pool never grows past its
+ * slot count and needs no locking: slots hold immutable Strings and a
+ * racy read at worst misses the cache.
+ */
+public final class StringPool {
+    private final String[] slots;
+    private final int mask;
+
+    public StringPool(int capacity) {
+        int size = Integer.highestOneBit(Math.max(16, capacity - 1)) << 1;
+        this.slots = new String[size];
+        this.mask = size - 1;
+    }
+
+    public String intern(String value) {
+        if (value == null) return null;
+        int hash = value.hashCode();
+        int index = (hash ^ (hash >>> 16)) & mask;
+        String cached = slots[index];
+        if (cached != null && cached.equals(value)) {
+            return cached;
+        }
+        slots[index] = value;
+        return value;
+    }
+}
@@ -0,0 +1,366 @@
+package com.paynotify.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Pushes unsynced rows from the local transactions table to Supabase as
+ * gzip-compressed bulk upserts. Pages are read with a rowid cursor that is
+ * persisted after every contiguous run of finished pages, so a killed sync
+ * resumes where it stopped instead of starting over.
+ *
+ * The rows and the cursor come through PageSource and CursorStore, so the
+ * worker can be run on the JVM against a local HTTP stand-in.
+ */
+public class SupabaseSyncWorker {
+    private static final String TAG = "SupabaseSyncWorker";
+    private static final String PREFS_NAME = "paynotify_sync";
+    private static final String KEY_CURSOR = "sync_cursor";
+    private static final String UPSERT_PATH = "/rest/v1/transactions?on_conflict=id";
+
+    private static final int PAGE_SIZE = 200;
+    private static final int MAX_IN_FLIGHT = 3;
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long BASE_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 30000;
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    /** Unsynced rows to upload; TransactionStore on a device. */
+    interface PageSource {
+        List<TransactionStore.Row> readUnsyncedPage(long afterRowId, int limit);
+
+        /** Returns the number of rows actually marked. */
+        int markSynced(List<TransactionStore.Row> rows);
+
+        void close();
+    }
+
+    /** Where the resume cursor is kept; shared preferences on a device. */
+    interface CursorStore {
+        long load();
+
+        void save(long cursor);
+    }
+
+    private final PageSource store;
+    private final CursorStore cursorStore;
+    private final String baseUrl;
+    private final String apiKey;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    public SupabaseSyncWorker(Context context, String baseUrl, String apiKey) {
+        this(new TransactionStore(context),
+            new PrefsCursorStore(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)),
+            baseUrl, apiKey);
+    }
+
+    SupabaseSyncWorker(PageSource store, CursorStore cursorStore, String baseUrl, String apiKey) {
+        this.store = store;
+        this.cursorStore = cursorStore;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.apiKey = apiKey;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Runs one full pass over the unsynced rows. Blocks until every page has
+     * been uploaded or given up on, so call it from a background thread.
+     */
+    public SyncResult syncAll() {
+        SyncResult result = new SyncResult();
+        if (!running.compareAndSet(false, true)) {
+            Log.w(TAG, "Sync already running");
+            return result;
+        }
+
+        ExecutorService uploadExecutor = Executors.newFixedThreadPool(MAX_IN_FLIGHT);
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        CursorTracker tracker = new CursorTracker(cursorStore.load());
+        long startTime = System.currentTimeMillis();
+
+        try {
+            long readPosition = tracker.committed();
+            while (true) {
+                List<TransactionStore.Row> page = store.readUnsyncedPage(readPosition, PAGE_SIZE);
+                if (page.isEmpty()) {
+                    break;
+                }
+                readPosition = page.get(page.size() - 1).rowId;
+
+                inFlight.acquire();
+                int pageIndex = tracker.register(readPosition);
+                uploadExecutor.execute(() -> {
+                    try {
+                        if (uploadWithRetry(page)) {
+                            // Rows left unmarked are sent again on the next pass; the upsert makes that harmless
+                            int marked = store.markSynced(page);
+                            result.uploaded.addAndGet(marked);
+                            result.failed.addAndGet(page.size() - marked);
+                        } else {
+                            result.failed.addAndGet(page.size());
+                        }
+                        // Under the tracker lock, so a late page cannot overwrite the reset below
+                        synchronized (tracker) {
+                            long cursor = tracker.complete(pageIndex);
+                            if (cursor >= 0) {
+                                persistCursor(cursor);
+                            }
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+
+            uploadExecutor.shutdown();
+            if (!uploadExecutor.awaitTermination(10, TimeUnit.MINUTES)) {
+                Log.w(TAG, "Uploads still running after 10 minutes, abandoning them");
+                uploadExecutor.shutdownNow();
+            }
+
+            // Pass finished; rows that failed permanently are retried on the next pass
+            synchronized (tracker) {
+                tracker.close();
+                persistCursor(0);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.w(TAG, "Sync interrupted");
+        } finally {
+            uploadExecutor.shutdownNow();
+            if (awaitIdle(inFlight)) {
+                store.close();
+            } else {
+                // Closing the database under an upload still in I/O would fail its markSynced
+                Log.w(TAG, "Uploads still in flight, leaving the transaction store open");
+            }
+            running.set(false);
+        }
+
+        Log.i(TAG, String.format(Locale.US, "Sync finished: %d uploaded, %d failed in %d ms",
+            result.uploaded.get(), result.failed.get(), System.currentTimeMillis() - startTime));
+        return result;
+    }
+
+    /**
+     * Waits for every upload to hand back its permit. An upload blocked in
+     * I/O ignores interrupts, but the connect and read timeouts bound it.
+     */
+    private static boolean awaitIdle(Semaphore inFlight) {
+        try {
+            if (inFlight.tryAcquire(MAX_IN_FLIGHT, CONNECT_TIMEOUT_MS + READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                inFlight.release(MAX_IN_FLIGHT);
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void persistCursor(long cursor) {
+        cursorStore.save(cursor);
+    }
+
+    private boolean uploadWithRetry(List<TransactionStore.Row> page) {
+        byte[] body;
+        try {
+            body = gzip(toJson(page).getBytes(StandardCharsets.UTF_8));
+        } catch (JSONException | IOException e) {
+            Log.e(TAG, "Error encoding sync payload: " + e.getMessage());
+            return false;
+        }
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            try {
+                int status = post(body);
+                if (status >= 200 && status < 300) {
+                    return true;
+                }
+                if (status != 408 && status != 429 && status < 500) {
+                    Log.e(TAG, "Supabase rejected sync batch with HTTP " + status);
+                    return false;
+                }
+                Log.w(TAG, "Supabase returned HTTP " + status + ", retrying");
+            } catch (IOException e) {
+                Log.w(TAG, "Sync request failed: " + e.getMessage());
+            }
+
+            if (attempt + 1 < MAX_ATTEMPTS) {
+                try {
+                    Thread.sleep(backoffDelay(attempt));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Exponential backoff with jitter so devices coming online together spread out
+    private static long backoffDelay(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << attempt);
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+
+    private int post(byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + UPSERT_PATH).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("apikey", apiKey);
+        connection.setRequestProperty("Authorization", "Bearer " + apiKey);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("Content-Encoding", "gzip");
+        connection.setRequestProperty("Prefer", "resolution=merge-duplicates,return=minimal");
+
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+
+        int status = connection.getResponseCode();
+        drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+        return status;
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) return;
+        try (InputStream stream = in) {
+            byte[] buffer = new byte[1024];
+            while (stream.read(buffer) != -1) {
+                // Discard response body so the connection can be reused
+            }
+        }
+    }
+
+    private static String toJson(List<TransactionStore.Row> page) throws JSONException {
+        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        isoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String createdAt = isoFormat.format(new Date());
+
+        // Same columns the Dart SupabaseService.saveTransaction upserts
+        JSONArray array = new JSONArray();
+        for (TransactionStore.Row row : page) {
+            JSONObject item = new JSONObject();
+            item.put("id", row.id);
+            item.put("amount", row.amount);
+            item.put("bank_name", row.bankName);
+            item.put("account_number", row.accountNumber);
+            item.put("sender_info", row.senderInfo);
+            item.put("description", row.description);
+            item.put("timestamp", row.timestamp);
+            item.put("is_verified", row.isVerified ? 1 : 0);
+            item.put("raw_notification_text", row.rawNotificationText);
+            item.put("created_at", createdAt);
+            array.put(item);
+        }
+        return array.toString();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Tracks pages that finish out of order and only moves the persisted
+     * cursor past a page once every page before it has finished too.
+     */
+    private static class CursorTracker {
+        private final ArrayList<Long> pageEnds = new ArrayList<>();
+        private final BitSet completed = new BitSet();
+        private int nextToCommit = 0;
+        private long committed;
+        private boolean closed = false;
+
+        CursorTracker(long committed) {
+            this.committed = committed;
+        }
+
+        synchronized long committed() {
+            return committed;
+        }
+
+        synchronized int register(long pageEnd) {
+            pageEnds.add(pageEnd);
+            return pageEnds.size() - 1;
+        }
+
+        /** Stops reporting progress once the pass has reset the cursor. */
+        synchronized void close() {
+            closed = true;
+        }
+
+        /** Returns the new committed cursor, or -1 once closed. */
+        synchronized long complete(int pageIndex) {
+            if (closed) return -1;
+            completed.set(pageIndex);
+            while (completed.get(nextToCommit)) {
+                committed = pageEnds.get(nextToCommit);
+                nextToCommit++;
+            }
+            return committed;
+        }
+    }
+
+    private static final class PrefsCursorStore implements CursorStore {
+        private final SharedPreferences prefs;
+
+        PrefsCursorStore(SharedPreferences prefs) {
+            this.prefs = prefs;
+        }
+
+        @Override
+        public long load() {
+            return prefs.getLong(KEY_CURSOR, 0);
+        }
+
+        @Override
+        public void save(long cursor) {
+            prefs.edit().putLong(KEY_CURSOR, cursor).apply();
+        }
+    }
+
+    public static class SyncResult {
+        public final AtomicInteger uploaded = new AtomicInteger();
+        public final AtomicInteger failed = new AtomicInteger();
+    }
+}
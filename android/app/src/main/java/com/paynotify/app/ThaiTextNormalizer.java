@@ -0,0 +1,89 @@
+package com.paynotify.app;
+
+/**
+ * Puts notification and OCR text into one canonical form before the
+ * extraction patterns see it, in a single pass over the input:
+ * Thai digits and full-width ASCII (digits, ＋, punctuation, letters)
+ * become plain ASCII, zero-width characters and soft hyphens are dropped,
+ * runs of spaces, tabs, NBSP and other horizontal whitespace collapse to
+ * one space, and line breaks are kept as a single '\n' with no spaces
+ * around them. Each thread writes into its own reusable buffer.
+ */
+public final class ThaiTextNormalizer {
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private ThaiTextNormalizer() {
+    }
+
+    public static String normalize(CharSequence text) {
+        return normalize(text, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Normalizes {@code text}, stopping once the output reaches
+     * {@code maxLength} characters.
+     */
+    public static String normalize(CharSequence text, int maxLength) {
+        if (text == null) return "";
+        StringBuilder out = BUFFER.get();
+        out.setLength(0);
+
+        // 0 = no pending break, ' ' = pending space, '\n' = pending line break
+        char pending = 0;
+        int length = text.length();
+        for (int i = 0; i < length && out.length() < maxLength; i++) {
+            char c = text.charAt(i);
+
+            if (c >= '\u0E50' && c <= '\u0E59') {
+                c = (char) ('0' + (c - '\u0E50'));
+            } else if (c >= '\uFF01' && c <= '\uFF5E') {
+                c = (char) (c - 0xFEE0);
+            }
+
+            switch (c) {
+                case '\u200B': // zero width space
+                case '\u200C': // zero width non-joiner
+                case '\u200D': // zero width joiner
+                case '\u2060': // word joiner
+                case '\uFEFF': // zero width no-break space
+                case '\u00AD': // soft hyphen
+                    continue;
+                case '\n':
+                case '\r':
+                case '\u2028':
+                case '\u2029':
+                    pending = '\n';
+                    continue;
+                case ' ':
+                case '\t':
+                case '\u00A0':
+                case '\u2007':
+                case '\u202F':
+                case '\u3000':
+                    if (pending == 0) pending = ' ';
+                    continue;
+                default:
+                    if (Character.isWhitespace(c)) {
+                        if (pending == 0) pending = ' ';
+                        continue;
+                    }
+            }
+
+            if (pending != 0 && out.length() > 0) {
+                out.append(pending);
+            }
+            pending = 0;
+            out.append(c);
+        }
+
+        if (out.length() > maxLength) {
+            out.setLength(maxLength);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,169 @@
+package com.paynotify.app;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import androidx.core.app.NotificationCompat;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Posts payment alerts grouped per bank. Each group has a summary with the
+ * day's count and total, read from DailyTotalsAggregator so they survive a
+ * process restart, and updates to a group are coalesced so a
+ * burst of transfers costs at most one child and one summary post per
+ * UPDATE_INTERVAL_MS instead of one NotificationManager call per payment.
+ */
+public class TransactionAlertNotifier {
+    private static final String TAG = "TransactionAlertNotifier";
+    private static final String GROUP_KEY_PREFIX = "com.paynotify.app.TRANSACTIONS.";
+    private static final long UPDATE_INTERVAL_MS = 500;
+    private static final int MAX_SUMMARY_LINES = 5;
+
+    private static TransactionAlertNotifier instance;
+
+    private final Context context;
+    private final NotificationManager notificationManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<Bank, AlertGroup> groups = new EnumMap<>(Bank.class);
+
+    public static synchronized TransactionAlertNotifier getInstance(Context context) {
+        if (instance == null) {
+            instance = new TransactionAlertNotifier(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private TransactionAlertNotifier(Context context) {
+        this.context = context;
+        this.notificationManager = context.getSystemService(NotificationManager.class);
+    }
+
+    public void notifyTransaction(TransactionRecord data) {
+        long now = SystemClock.uptimeMillis();
+        long delay;
+        AlertGroup group;
+
+        synchronized (groups) {
+            group = groups.get(data.bank);
+            if (group == null) {
+                group = new AlertGroup(data.bank);
+                groups.put(data.bank, group);
+            }
+            group.add(data, System.currentTimeMillis());
+
+            if (group.flushScheduled) {
+                // Already queued, the pending flush will pick this payment up
+                return;
+            }
+            group.flushScheduled = true;
+            delay = Math.max(0, group.lastFlushTime + UPDATE_INTERVAL_MS - now);
+        }
+
+        AlertGroup target = group;
+        mainHandler.postDelayed(() -> flush(target), delay);
+    }
+
+    private void flush(AlertGroup group) {
+        TransactionRecord latest;
+        String[] lines;
+
+        synchronized (groups) {
+            group.flushScheduled = false;
+            group.lastFlushTime = SystemClock.uptimeMillis();
+            latest = group.pendingChild;
+            group.pendingChild = null;
+            lines = group.recentLines.toArray(new String[0]);
+        }
+
+        long[] today = DailyTotalsAggregator.getInstance(context).getDayTotals(group.bank, System.currentTimeMillis());
+
+        if (latest != null) {
+            notificationManager.notify(notificationId(latest.fingerprint()), buildChild(group, latest));
+        }
+        notificationManager.notify(group.summaryId, buildSummary(group, (int) today[0], today[1], lines));
+    }
+
+    private Notification buildChild(AlertGroup group, TransactionRecord data) {
+        return new NotificationCompat.Builder(context, BankNotificationProcessor.CHANNEL_TRANSACTIONS)
+            .setSmallIcon(R.drawable.notification_icon)
+            .setContentTitle("รับเงินเข้าบัญชี " + data.bankName())
+            .setContentText(String.format(Locale.US, "%s บาท จาก %s", data.formatAmount(), data.senderInfo))
+            .setStyle(new NotificationCompat.BigTextStyle().bigText(String.format(Locale.US,
+                "จำนวน %s บาท\nจาก %s\nบัญชี %s", data.formatAmount(), data.senderInfo, data.accountNumber)))
+            .setPriority(NotificationCompat.PRIORITY_HIGH)
+            .setGroup(group.groupKey)
+            .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_SUMMARY)
+            .setAutoCancel(true)
+            .build();
+    }
+
+    private Notification buildSummary(AlertGroup group, int count, long totalSatang, String[] lines) {
+        String summaryText = String.format(Locale.US, "วันนี้ %d รายการ รวม %.2f บาท", count, totalSatang / 100.0);
+
+        NotificationCompat.InboxStyle inbox = new NotificationCompat.InboxStyle()
+            .setBigContentTitle("รับเงินเข้าบัญชี " + group.bank.name())
+            .setSummaryText(summaryText);
+        for (String line : lines) {
+            inbox.addLine(line);
+        }
+
+        return new NotificationCompat.Builder(context, BankNotificationProcessor.CHANNEL_TRANSACTIONS)
+            .setSmallIcon(R.drawable.notification_icon)
+            .setContentTitle("รับเงินเข้าบัญชี " + group.bank.name())
+            .setContentText(summaryText)
+            .setStyle(inbox)
+            .setNumber(count)
+            .setPriority(NotificationCompat.PRIORITY_HIGH)
+            .setGroup(group.groupKey)
+            .setGroupSummary(true)
+            .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_SUMMARY)
+            .setAutoCancel(true)
+            .build();
+    }
+
+    private static int notificationId(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32));
+    }
+
+    private static class AlertGroup {
+        final Bank bank;
+        final String groupKey;
+        final int summaryId;
+        final ArrayDeque<String> recentLines = new ArrayDeque<>(MAX_SUMMARY_LINES);
+
+        TransactionRecord pendingChild;
+        long day = -1;
+        long lastFlushTime = -UPDATE_INTERVAL_MS;
+        boolean flushScheduled;
+
+        AlertGroup(Bank bank) {
+            this.bank = bank;
+            this.groupKey = GROUP_KEY_PREFIX + bank.name();
+            this.summaryId = notificationId(BankNotificationProcessor.fingerprint("summary", bank.name()));
+        }
+
+        void add(TransactionRecord data, long now) {
+            long today = (now + TimeZone.getDefault().getOffset(now)) / (24L * 60 * 60 * 1000);
+            if (today != day) {
+                // The summary lists today's payments only
+                day = today;
+                recentLines.clear();
+            }
+
+            pendingChild = data;
+
+            if (recentLines.size() == MAX_SUMMARY_LINES) {
+                recentLines.pollLast();
+            }
+            recentLines.addFirst(String.format(Locale.US, "%s บาท จาก %s", data.formatAmount(), data.senderInfo));
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.paynotify.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the transaction history to a CSV or NDJSON file natively, so an
+ * export never builds the whole history in memory. Rows are read one at a
+ * time from a windowed cursor into a reused Row, formatted into a reused
+ * StringBuilder and encoded into a fixed BUFFER_SIZE buffer that is
+ * written to a FileChannel, optionally through gzip, whenever it fills.
+ * Memory use is the same for a day of history as for years of it.
+ *
+ * The export is written to a temporary file and renamed into place once
+ * complete, so a failed export never leaves a truncated file behind.
+ */
+public class TransactionExporter {
+    private static final String TAG = "TransactionExporter";
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_NDJSON = "ndjson";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PROGRESS_EVERY = 1000;
+    // Lets Excel recognize the CSV as UTF-8, without which Thai text comes out garbled
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+    private static final String CSV_HEADER = "id,timestamp,date,amount,bank_name,account_number,sender_info,"
+        + "description,is_verified,raw_notification_text\n";
+
+    public interface ProgressListener {
+        void onProgress(int written, int total);
+    }
+
+    private final TransactionStore store;
+
+    public TransactionExporter(Context context) {
+        this.store = new TransactionStore(context);
+    }
+
+    /**
+     * Exports rows with {@code fromTime <= timestamp < toTime} to
+     * {@code target}. Blocks until done, so call it off the main thread.
+     * Returns {path, rows, bytes}.
+     */
+    public Map<String, Object> export(File target, String format, boolean gzip, long fromTime, long toTime,
+                                      ProgressListener listener) throws IOException {
+        boolean csv = FORMAT_CSV.equals(format);
+        if (!csv && !FORMAT_NDJSON.equals(format)) {
+            throw new IllegalArgumentException("Unknown export format: " + format);
+        }
+
+        File temp = new File(target.getPath() + ".tmp");
+        int written = 0;
+        long bytes;
+        try (Cursor cursor = store.queryRange(fromTime, toTime);
+             ExportWriter writer = new ExportWriter(new FileOutputStream(temp), gzip)) {
+            int total = cursor != null ? cursor.getCount() : 0;
+            RowFormatter formatter = new RowFormatter();
+            TransactionStore.Row row = new TransactionStore.Row();
+
+            if (csv) {
+                writer.append(BYTE_ORDER_MARK).append(CSV_HEADER);
+            }
+            while (cursor != null && cursor.moveToNext()) {
+                TransactionStore.readRow(cursor, row);
+                if (csv) {
+                    formatter.appendCsv(writer.line(), row);
+                } else {
+                    formatter.appendJson(writer.line(), row);
+                }
+                writer.endLine();
+                written++;
+                if (listener != null && written % PROGRESS_EVERY == 0) {
+                    listener.onProgress(written, total);
+                }
+            }
+            writer.finish();
+            bytes = writer.getBytesWritten();
+            if (listener != null) {
+                listener.onProgress(written, total);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!temp.delete()) {
+                Log.w(TAG, "Could not delete partial export " + temp);
+            }
+            throw e;
+        } finally {
+            store.close();
+        }
+
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Could not move export to " + target);
+        }
+        Log.i(TAG, String.format(Locale.US, "Exported %d transactions to %s (%d bytes)", written, target, bytes));
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("path", target.getAbsolutePath());
+        result.put("rows", written);
+        result.put("bytes", bytes);
+        return result;
+    }
+
+    /**
+     * Formats a row as one CSV record or one JSON object. NDJSON keys are
+     * the transactions table's column names.
+     */
+    private static final class RowFormatter {
+        private final SimpleDateFormat isoDate = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX", Locale.US);
+        private final Date date = new Date();
+
+        void appendCsv(StringBuilder out, TransactionStore.Row row) {
+            appendCsvField(out, row.id).append(',');
+            out.append(row.timestamp).append(',');
+            date.setTime(row.timestamp);
+            out.append(isoDate.format(date)).append(',');
+            appendAmount(out, row.amount).append(',');
+            appendCsvField(out, row.bankName).append(',');
+            appendCsvField(out, row.accountNumber).append(',');
+            appendCsvField(out, row.senderInfo).append(',');
+            appendCsvField(out, row.description).append(',');
+            out.append(row.isVerified ? '1' : '0').append(',');
+            appendCsvField(out, row.rawNotificationText);
+        }
+
+        void appendJson(StringBuilder out, TransactionStore.Row row) {
+            out.append("{\"id\":");
+            appendJsonString(out, row.id);
+            out.append(",\"amount\":");
+            appendAmount(out, row.amount);
+            out.append(",\"bank_name\":");
+            appendJsonString(out, row.bankName);
+            out.append(",\"account_number\":");
+            appendJsonString(out, row.accountNumber);
+            out.append(",\"sender_info\":");
+            appendJsonString(out, row.senderInfo);
+            out.append(",\"description\":");
+            appendJsonString(out, row.description);
+            out.append(",\"timestamp\":").append(row.timestamp);
+            out.append(",\"is_verified\":").append(row.isVerified ? 1 : 0);
+            out.append(",\"raw_notification_text\":");
+            appendJsonString(out, row.rawNotificationText);
+            out.append('}');
+        }
+
+        // Two decimals without String.format, which would allocate for every row
+        private static StringBuilder appendAmount(StringBuilder out, double amount) {
+            long satang = Math.round(amount * 100);
+            if (satang < 0) {
+                out.append('-');
+                satang = -satang;
+            }
+            long cents = satang % 100;
+            return out.append(satang / 100).append('.').append(cents < 10 ? "0" : "").append(cents);
+        }
+
+        /**
+         * Appends one CSV cell. A cell that starts with =, +, - or @ would be
+         * run as a formula by Excel or Sheets, and sender names and
+         * notification text come from outside, so such a cell is prefixed
+         * with ' and quoted to make it plain text.
+         */
+        private static StringBuilder appendCsvField(StringBuilder out, String value) {
+            if (value == null) return out;
+            boolean formula = !value.isEmpty() && isFormulaStart(value.charAt(0));
+            boolean quote = formula;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) return out.append(value);
+
+            out.append('"');
+            if (formula) {
+                out.append('\'');
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') out.append('"');
+                out.append(c);
+            }
+            return out.append('"');
+        }
+
+        private static boolean isFormulaStart(char c) {
+            return c == '=' || c == '+' || c == '-' || c == '@';
+        }
+
+        private static void appendJsonString(StringBuilder out, String value) {
+            if (value == null) {
+                out.append("null");
+                return;
+            }
+            out.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"': out.append("\\\""); break;
+                    case '\\': out.append("\\\\"); break;
+                    case '\n': out.append("\\n"); break;
+                    case '\r': out.append("\\r"); break;
+                    case '\t': out.append("\\t"); break;
+                    default:
+                        if (c < 0x20) {
+                            out.append(String.format(Locale.US, "\\u%04x", (int) c));
+                        } else {
+                            out.append(c);
+                        }
+                }
+            }
+            out.append('"');
+        }
+    }
+
+    /**
+     * Encodes text as UTF-8 into one fixed buffer and writes it to the
+     * file channel each time the buffer fills. With gzip the buffer goes
+     * through a GZIPOutputStream on top of the same channel.
+     */
+    private static final class ExportWriter implements AutoCloseable {
+        private final FileOutputStream file;
+        private final FileChannel channel;
+        private final GZIPOutputStream gzip;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        // A broken surrogate in one sender name should not abort the whole export
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final StringBuilder line = new StringBuilder(512);
+
+        ExportWriter(FileOutputStream file, boolean compress) throws IOException {
+            this.file = file;
+            this.channel = file.getChannel();
+            OutputStream channelStream = Channels.newOutputStream(channel);
+            try {
+                this.gzip = compress ? new GZIPOutputStream(channelStream, BUFFER_SIZE) : null;
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+        }
+
+        /** The reused line buffer; fill it and call {@link #endLine}. */
+        StringBuilder line() {
+            line.setLength(0);
+            return line;
+        }
+
+        void endLine() throws IOException {
+            line.append('\n');
+            append(line);
+        }
+
+        ExportWriter append(char c) throws IOException {
+            return append(String.valueOf(c));
+        }
+
+        ExportWriter append(CharSequence text) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(text);
+            while (true) {
+                CoderResult result = encoder.encode(chars, buffer, false);
+                if (result.isOverflow()) {
+                    drain();
+                } else if (result.isUnderflow()) {
+                    return this;
+                } else {
+                    result.throwException();
+                }
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            if (gzip != null) {
+                gzip.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } else {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            buffer.clear();
+        }
+
+        void finish() throws IOException {
+            drain();
+            if (gzip != null) {
+                gzip.finish();
+            }
+            channel.force(false);
+        }
+
+        long getBytesWritten() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Closing the gzip stream closes the channel under it
+            if (gzip != null) {
+                gzip.close();
+            }
+            file.close();
+        }
+    }
+}
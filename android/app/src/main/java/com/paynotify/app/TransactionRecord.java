@@ -0,0 +1,87 @@
+package com.paynotify.app;
+
+import java.util.Locale;
+
+/**
+ * Immutable transaction extracted from a bank notification. This is the
+ * one object passed between pipeline stages: the bank is an enum, the
+ * amount is whole satang and repeated strings are interned, so records
+ * kept in memory stay small. The raw text is only present when the
+ * producing processor was asked to keep it.
+ */
+public final class TransactionRecord {
+    private static final StringPool POOL = new StringPool(1024);
+
+    public final Bank bank;
+    public final long amountSatang;
+    public final String accountNumber;
+    public final String senderInfo;
+    public final String packageName;
+    public final long postTime;
+    public final String rawText;
+
+    public TransactionRecord(Bank bank, long amountSatang, String accountNumber, String senderInfo,
+                             String packageName, long postTime, String rawText) {
+        this.bank = bank != null ? bank : Bank.UNKNOWN;
+        this.amountSatang = amountSatang;
+        this.accountNumber = POOL.intern(accountNumber != null ? accountNumber : "");
+        this.senderInfo = POOL.intern(senderInfo != null ? senderInfo : "Unknown");
+        this.packageName = POOL.intern(packageName);
+        this.postTime = postTime;
+        this.rawText = rawText;
+    }
+
+    public String bankName() {
+        return bank.name();
+    }
+
+    public double amount() {
+        return amountSatang / 100.0;
+    }
+
+    public String formatAmount() {
+        return String.format(Locale.US, "%d.%02d", amountSatang / 100, Math.abs(amountSatang % 100));
+    }
+
+    public long fingerprint() {
+        return BankNotificationProcessor.fingerprint(
+            bank.name(), Long.toString(amountSatang), accountNumber, senderInfo, Long.toString(postTime));
+    }
+
+    /**
+     * Parses an amount such as "1,234.5" into satang without going through
+     * double, returning -1 if the text is not a valid amount.
+     */
+    public static long parseSatang(CharSequence text) {
+        long whole = 0;
+        long fraction = 0;
+        int fractionDigits = -1;
+        boolean sawDigit = false;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sawDigit = true;
+                if (fractionDigits < 0) {
+                    whole = whole * 10 + (c - '0');
+                    if (whole > Long.MAX_VALUE / 1000) return -1;
+                } else if (fractionDigits < 2) {
+                    fraction = fraction * 10 + (c - '0');
+                    fractionDigits++;
+                }
+            } else if (c == '.') {
+                if (fractionDigits >= 0) {
+                    // A second dot means this was not an amount, e.g. a date
+                    return -1;
+                }
+                fractionDigits = 0;
+            } else if (c != ',') {
+                break;
+            }
+        }
+
+        if (!sawDigit) return -1;
+        if (fractionDigits == 1) fraction *= 10;
+        return whole * 100 + fraction;
+    }
+}
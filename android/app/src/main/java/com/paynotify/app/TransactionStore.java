@@ -0,0 +1,217 @@
+package com.paynotify.app;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Native access to the sqflite database owned by the Dart DatabaseService.
+ * The schema is created on the Dart side; this class only reads, updates and
+ * bulk-inserts rows.
+ */
+public class TransactionStore implements SupabaseSyncWorker.PageSource {
+    private static final String TAG = "TransactionStore";
+    private static final String DATABASE_NAME = "paynotify.db";
+    private static final String TABLE_TRANSACTIONS = "transactions";
+
+    private static final int SYNC_STATUS_PENDING = 0;
+    private static final int SYNC_STATUS_SYNCED = 1;
+
+    private static final String[] ROW_COLUMNS = {
+        "rowid", "id", "amount", "bank_name", "account_number", "sender_info",
+        "description", "timestamp", "is_verified", "raw_notification_text"
+    };
+
+    private static final String INSERT_SQL = "INSERT OR IGNORE INTO " + TABLE_TRANSACTIONS
+        + " (id, amount, bank_name, account_number, sender_info, description, timestamp,"
+        + " is_verified, raw_notification_text, sync_status) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final Context context;
+    private SQLiteDatabase database;
+
+    public TransactionStore(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    private synchronized SQLiteDatabase open() {
+        if (database != null && database.isOpen()) {
+            return database;
+        }
+        File path = context.getDatabasePath(DATABASE_NAME);
+        if (!path.exists()) {
+            // Dart side has not created the database yet
+            return null;
+        }
+        database = SQLiteDatabase.openDatabase(path.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+        return database;
+    }
+
+    /**
+     * Reads the next page of unsynced rows using rowid keyset pagination,
+     * so every page costs O(limit) regardless of how far into the table we are.
+     */
+    @Override
+    public List<Row> readUnsyncedPage(long afterRowId, int limit) {
+        List<Row> rows = new ArrayList<>(limit);
+        SQLiteDatabase db = open();
+        if (db == null) {
+            return rows;
+        }
+
+        try (Cursor cursor = db.query(
+                TABLE_TRANSACTIONS,
+                ROW_COLUMNS,
+                "rowid > ? AND sync_status = ?",
+                new String[]{String.valueOf(afterRowId), String.valueOf(SYNC_STATUS_PENDING)},
+                null, null,
+                "rowid ASC",
+                String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                rows.add(readRow(cursor, new Row()));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading unsynced transactions: " + e.getMessage());
+        }
+        return rows;
+    }
+
+    /**
+     * Opens a cursor over rows with {@code fromTime <= timestamp < toTime},
+     * oldest first, for reading with {@link #readRow}. The cursor pages
+     * through the table in fixed-size windows, so it can be walked to the
+     * end without loading the table. Returns null if the database does not
+     * exist yet.
+     */
+    public Cursor queryRange(long fromTime, long toTime) {
+        SQLiteDatabase db = open();
+        if (db == null) {
+            return null;
+        }
+        return db.query(TABLE_TRANSACTIONS, ROW_COLUMNS, "timestamp >= ? AND timestamp < ?",
+            new String[]{String.valueOf(fromTime), String.valueOf(toTime)},
+            null, null, "timestamp ASC, rowid ASC");
+    }
+
+    @Override
+    public int markSynced(List<Row> rows) {
+        SQLiteDatabase db = open();
+        if (db == null || rows.isEmpty()) {
+            return 0;
+        }
+
+        int updated = 0;
+        ContentValues values = new ContentValues();
+        values.put("sync_status", SYNC_STATUS_SYNCED);
+
+        db.beginTransaction();
+        try {
+            for (Row row : rows) {
+                updated += db.update(TABLE_TRANSACTIONS, values, "id = ?", new String[]{row.id});
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(TAG, "Error marking transactions as synced: " + e.getMessage());
+            // Rolled back, so none of them are marked
+            updated = 0;
+        } finally {
+            db.endTransaction();
+        }
+        return updated;
+    }
+
+    /**
+     * Inserts records in one transaction through a single compiled
+     * statement. Rows are keyed by {@code idPrefix} plus the record
+     * fingerprint, so inserting the same records again is a no-op. Records
+     * that became new rows are added to {@code inserted} once the
+     * transaction commits. Returns the number of new rows, or -1 if the
+     * database does not exist yet.
+     */
+    public int insertBatch(List<TransactionRecord> records, String idPrefix, String description,
+                           List<TransactionRecord> inserted) {
+        SQLiteDatabase db = open();
+        if (db == null) {
+            return -1;
+        }
+        if (records.isEmpty()) {
+            return 0;
+        }
+
+        List<TransactionRecord> added = new ArrayList<>();
+        db.beginTransaction();
+        try (SQLiteStatement insert = db.compileStatement(INSERT_SQL)) {
+            for (TransactionRecord record : records) {
+                insert.clearBindings();
+                insert.bindString(1, idPrefix + Long.toHexString(record.fingerprint()));
+                insert.bindDouble(2, record.amount());
+                insert.bindString(3, record.bankName());
+                insert.bindString(4, record.accountNumber != null ? record.accountNumber : "");
+                insert.bindString(5, record.senderInfo != null ? record.senderInfo : "");
+                insert.bindString(6, description);
+                insert.bindLong(7, record.postTime);
+                insert.bindLong(8, 0);
+                if (record.rawText != null) {
+                    insert.bindString(9, record.rawText);
+                } else {
+                    insert.bindNull(9);
+                }
+                insert.bindLong(10, SYNC_STATUS_PENDING);
+                if (insert.executeInsert() != -1) {
+                    added.add(record);
+                }
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(TAG, "Error inserting transactions: " + e.getMessage());
+            // Rolled back, so none of them were inserted
+            added.clear();
+        } finally {
+            db.endTransaction();
+        }
+        inserted.addAll(added);
+        return added.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (database != null) {
+            database.close();
+            database = null;
+        }
+    }
+
+    /** Reads the cursor's current row into {@code row}, so one Row can be reused for a whole scan. */
+    static Row readRow(Cursor cursor, Row row) {
+        row.rowId = cursor.getLong(0);
+        row.id = cursor.getString(1);
+        row.amount = cursor.getDouble(2);
+        row.bankName = cursor.getString(3);
+        row.accountNumber = cursor.getString(4);
+        row.senderInfo = cursor.getString(5);
+        row.description = cursor.getString(6);
+        row.timestamp = cursor.getLong(7);
+        row.isVerified = cursor.getInt(8) != 0;
+        row.rawNotificationText = cursor.getString(9);
+        return row;
+    }
+
+    public static class Row {
+        public long rowId;
+        public String id;
+        public double amount;
+        public String bankName;
+        public String accountNumber;
+        public String senderInfo;
+        public String description;
+        public long timestamp;
+        public boolean isVerified;
+        public String rawNotificationText;
+    }
+}
@@ -0,0 +1,112 @@
+package com.paynotify.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BankNotificationProcessorTest {
+    private static final String SCB = "com.scb.phone";
+    private static final long POST_TIME = 1700000000000L;
+    // Generous for a 1024-char input; only an unbounded repeat in a pattern could exceed it, and on
+    // Android the regex engine does not read through BoundedCharSequence, so the patterns must hold this alone
+    private static final long MAX_CALL_MILLIS = 50;
+    private static final int WARMUP_RUNS = 200;
+
+    // Android stubs report SDK_INT 0, so no notification channels are created
+    private final BankNotificationProcessor processor = new BankNotificationProcessor(null);
+
+    @Test
+    public void extractsAmountAccountAndSender() {
+        TransactionRecord record = processor.processNotification(SCB, "SCB Easy",
+            "รับเงิน 1,250.50 บาท เข้าบัญชี 123-4-56789 จาก นาย สมชาย", POST_TIME);
+
+        assertNotNull(record);
+        assertEquals(Bank.SCB, record.bank);
+        assertEquals(125050, record.amountSatang);
+        assertEquals("123-4-56789", record.accountNumber);
+        assertEquals(POST_TIME, record.postTime);
+    }
+
+    @Test
+    public void readsAmountsWrittenInThaiDigits() {
+        TransactionRecord record = processor.processNotification(SCB, "SCB Easy",
+            "เงินเข้า ๕๐๐.๐๐ บาท", POST_TIME);
+
+        assertNotNull(record);
+        assertEquals(50000, record.amountSatang);
+    }
+
+    @Test
+    public void plainNotificationIsOneTransfer() {
+        CharSequence[] parts = {"เงินเข้า 500.00 บาท รายการโอน 2 ครั้งวันนี้"};
+        long[] postTimes = {POST_TIME};
+
+        List<TransactionRecord> plain = processor.processNotificationBatch(SCB, "SCB Easy", parts, postTimes, false);
+        assertEquals(1, plain.size());
+        assertEquals(50000, plain.get(0).amountSatang);
+
+        // A grouped part is only split at amounts written as money, so the count is not a transfer
+        List<TransactionRecord> grouped = processor.processNotificationBatch(SCB, "SCB Easy", parts, postTimes, true);
+        assertEquals(1, grouped.size());
+        assertEquals(50000, grouped.get(0).amountSatang);
+    }
+
+    @Test
+    public void groupedPartIsSplitAtEveryAmount() {
+        CharSequence[] parts = {"เงินเข้า 500.00 บาท บัญชี 123-4-56789 เงินเข้า 120 บาท บัญชี 987-6-54321"};
+        List<TransactionRecord> records = processor.processNotificationBatch(SCB, "SCB Easy", parts,
+            new long[]{POST_TIME}, true);
+
+        assertEquals(2, records.size());
+        assertEquals(50000, records.get(0).amountSatang);
+        assertEquals("123-4-56789", records.get(0).accountNumber);
+        assertEquals(12000, records.get(1).amountSatang);
+        assertEquals("987-6-54321", records.get(1).accountNumber);
+    }
+
+    @Test
+    public void hostileInputsStayWithinTheTimeBudget() {
+        String[] inputs = {
+            repeat("โอนเงิน ", 500),
+            "บัญชี " + repeat("x-", 2000),
+            "โอนเงิน 100 บาท จาก " + repeat("ก", 5000),
+            repeat("1,", 4000),
+        };
+        for (String input : inputs) {
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                processor.processNotification(SCB, "SCB Easy", input, POST_TIME);
+            }
+            long start = System.nanoTime();
+            processor.processNotification(SCB, "SCB Easy", input, POST_TIME);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("Took " + elapsedMillis + " ms on a " + input.length() + "-char input",
+                elapsedMillis < MAX_CALL_MILLIS);
+        }
+        // A match that ran past the deadline would have dropped this transfer
+        assertNotNull(processor.processNotification(SCB, "SCB Easy", inputs[2], POST_TIME));
+    }
+
+    @Test
+    public void hostilePartDoesNotDropTheOthers() {
+        CharSequence[] parts = {repeat("โอนเงิน ", 500), "โอนเงิน 300.00 บาท"};
+        List<TransactionRecord> records = processor.processNotificationBatch(SCB, "SCB Easy", parts,
+            new long[]{POST_TIME, POST_TIME + 1}, true);
+
+        assertEquals(1, records.size());
+        assertEquals(30000, records.get(0).amountSatang);
+        assertEquals(POST_TIME + 1, records.get(0).postTime);
+    }
+
+    private static String repeat(String part, int times) {
+        StringBuilder out = new StringBuilder(part.length() * times);
+        for (int i = 0; i < times; i++) {
+            out.append(part);
+        }
+        return out.toString();
+    }
+}
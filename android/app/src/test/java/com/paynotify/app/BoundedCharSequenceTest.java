@@ -0,0 +1,56 @@
+package com.paynotify.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class BoundedCharSequenceTest {
+    private static final long BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    @Test
+    public void runawayBacktrackingTimesOutNearTheBudget() {
+        // Nested quantifiers fail in exponential time on a run of a's with no b; the backreference
+        // keeps newer JDKs from memoizing the inner loop and finishing early
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            text.append('a');
+        }
+        text.append('c');
+        Pattern pattern = Pattern.compile("((a+)+)\\1b");
+
+        long start = System.nanoTime();
+        try {
+            pattern.matcher(new BoundedCharSequence(text, BUDGET_NANOS)).find();
+            fail("Expected the match to time out");
+        } catch (BoundedCharSequence.MatchTimeoutException e) {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("Timed out after " + elapsedMillis + " ms", elapsedMillis < 250);
+        }
+    }
+
+    @Test
+    public void ordinaryMatchSucceedsEvenPastTheDeadline() {
+        // A zero budget has expired before the first read; free reads still cover a normal match
+        Pattern pattern = Pattern.compile("(\\d[\\d,.]{0,15}) บาท");
+        Matcher matcher = pattern.matcher(new BoundedCharSequence("รับเงิน 1,250.50 บาท", 0));
+
+        assertTrue(matcher.find());
+        assertEquals("1,250.50", matcher.group(1));
+    }
+
+    @Test
+    public void viewDelegatesToTheUnderlyingText() {
+        BoundedCharSequence view = new BoundedCharSequence("โอนเงิน 500", BUDGET_NANOS);
+
+        assertEquals(11, view.length());
+        assertEquals('5', view.charAt(8));
+        assertEquals("500", view.subSequence(8, 11).toString());
+        assertEquals("โอนเงิน 500", view.toString());
+    }
+}
@@ -0,0 +1,145 @@
+package com.paynotify.app;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Talks to the server over loopback the way a POS terminal would. */
+public class PosEventServerTest {
+    private static final byte[] TOKEN = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    @After
+    public void stopServer() {
+        PosEventServer.stop();
+    }
+
+    @Test
+    public void pairedClientReceivesPublishedPayment() throws Exception {
+        PosEventServer server = PosEventServer.start(0, TOKEN);
+        try (Socket socket = connect(server)) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            sendHello(socket, 0, 0, TOKEN);
+
+            byte[] welcome = readFrame(in);
+            assertEquals(PosEventServer.FRAME_WELCOME, welcome[0]);
+
+            server.publish(record(123450, "นาย ทดสอบ"));
+            ByteBuffer payment = ByteBuffer.wrap(readFrame(in));
+            assertEquals(PosEventServer.FRAME_PAYMENT, payment.get());
+            assertEquals(1, payment.getLong());
+            assertEquals(1_700_000_000_000L, payment.getLong());
+            assertEquals(123450, payment.getLong());
+            assertEquals("SCB", readString(payment));
+            assertEquals("นาย ทดสอบ", readString(payment));
+            assertEquals("x1234", readString(payment));
+        }
+    }
+
+    @Test
+    public void reconnectingClientOnlyReplaysWhatItMissed() throws Exception {
+        PosEventServer server = PosEventServer.start(0, TOKEN);
+        long sessionId;
+        try (Socket socket = connect(server)) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            sendHello(socket, 0, 0, TOKEN);
+            sessionId = ByteBuffer.wrap(readFrame(in), 1, 8).getLong();
+            server.publish(record(100, "A"));
+            readFrame(in);
+        }
+        server.publish(record(200, "B"));
+
+        try (Socket socket = connect(server)) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            sendHello(socket, sessionId, 1, TOKEN);
+            readFrame(in);
+            ByteBuffer payment = ByteBuffer.wrap(readFrame(in));
+            payment.get();
+            assertEquals(2, payment.getLong());
+        }
+    }
+
+    @Test
+    public void wrongTokenIsDisconnectedWithoutPayments() throws Exception {
+        PosEventServer server = PosEventServer.start(0, TOKEN);
+        server.publish(record(100, "A"));
+        byte[] wrong = TOKEN.clone();
+        wrong[0] ^= 1;
+        try (Socket socket = connect(server)) {
+            sendHello(socket, 0, 0, wrong);
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    public void restartRebindsTheSamePort() throws Exception {
+        int port = PosEventServer.start(0, TOKEN).getPort();
+        PosEventServer.stop();
+        PosEventServer server = PosEventServer.start(port, TOKEN);
+        assertEquals(port, server.getPort());
+        try (Socket socket = connect(server)) {
+            sendHello(socket, 0, 0, TOKEN);
+            assertEquals(PosEventServer.FRAME_WELCOME,
+                    readFrame(new DataInputStream(socket.getInputStream()))[0]);
+        }
+    }
+
+    @Test
+    public void longSenderIsCutOnACharacterBoundary() {
+        char[] thai = new char[400];
+        Arrays.fill(thai, 'ก');
+        // Two ASCII bytes shift the 3-byte characters so byte 1024 lands inside one
+        byte[] frame = PosEventServer.encodePayment(record(100, "xx" + new String(thai)));
+        ByteBuffer payment = ByteBuffer.wrap(frame, 4, frame.length - 4);
+        payment.position(4 + 1 + 8 + 8 + 8);
+        readString(payment);
+        String sender = readString(payment);
+
+        assertEquals("xx" + new String(thai, 0, 340), sender);
+    }
+
+    private static TransactionRecord record(long amountSatang, String sender) {
+        return new TransactionRecord(Bank.SCB, amountSatang, "x1234", sender,
+                "com.scb.phone", 1_700_000_000_000L, "");
+    }
+
+    private static Socket connect(PosEventServer server) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static void sendHello(Socket socket, long sessionId, long lastSeq, byte[] token) throws IOException {
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeInt(1 + 8 + 8 + token.length);
+        out.writeByte(PosEventServer.FRAME_HELLO);
+        out.writeLong(sessionId);
+        out.writeLong(lastSeq);
+        out.write(token);
+        out.flush();
+    }
+
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length <= 0) throw new EOFException("Bad frame length " + length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
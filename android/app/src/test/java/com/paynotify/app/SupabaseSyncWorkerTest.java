@@ -0,0 +1,226 @@
+package com.paynotify.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/** Runs the worker against a local HTTP stand-in for the Supabase REST endpoint. */
+public class SupabaseSyncWorkerTest {
+    private static final String API_KEY = "test-key";
+
+    private HttpServer server;
+    private final ConcurrentLinkedQueue<Integer> responses = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+    private final List<String> failures = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/rest/v1/transactions", exchange -> {
+            requests.incrementAndGet();
+            try {
+                if (!API_KEY.equals(exchange.getRequestHeaders().getFirst("apikey"))) {
+                    failures.add("missing apikey");
+                }
+                if (!"gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    failures.add("body not gzip-encoded");
+                }
+                String body = gunzip(exchange.getRequestBody());
+                Integer status = responses.poll();
+                if (status == null || status == 201) {
+                    batchSizes.add(new JSONArray(body).length());
+                }
+                exchange.sendResponseHeaders(status != null ? status : 201, -1);
+            } catch (Exception e) {
+                failures.add(e.toString());
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void uploadsEveryPageAndResetsTheCursor() {
+        FakeSource source = new FakeSource(450);
+        FakeCursorStore cursors = new FakeCursorStore();
+
+        SupabaseSyncWorker.SyncResult result = worker(source, cursors).syncAll();
+
+        assertEquals(Collections.emptyList(), failures);
+        assertEquals(450, result.uploaded.get());
+        assertEquals(0, result.failed.get());
+        assertEquals(450, sum(batchSizes));
+        assertEquals(3, batchSizes.size());
+        assertEquals(450, source.synced.size());
+        // Committed past the last page, then reset once the pass finished
+        assertTrue(cursors.saved.contains(450L));
+        assertEquals(0L, (long) cursors.saved.get(cursors.saved.size() - 1));
+        assertTrue(source.closed);
+    }
+
+    @Test
+    public void resumesFromThePersistedCursor() {
+        FakeSource source = new FakeSource(450);
+        FakeCursorStore cursors = new FakeCursorStore();
+        cursors.cursor = 400;
+
+        SupabaseSyncWorker.SyncResult result = worker(source, cursors).syncAll();
+
+        assertEquals(50, result.uploaded.get());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void retriesServerErrors() {
+        responses.add(503);
+        FakeSource source = new FakeSource(10);
+
+        SupabaseSyncWorker.SyncResult result = worker(source, new FakeCursorStore()).syncAll();
+
+        assertEquals(2, requests.get());
+        assertEquals(10, result.uploaded.get());
+        assertEquals(10, source.synced.size());
+    }
+
+    @Test
+    public void rejectedBatchIsNotRetriedOrMarked() {
+        responses.add(400);
+        FakeSource source = new FakeSource(10);
+
+        SupabaseSyncWorker.SyncResult result = worker(source, new FakeCursorStore()).syncAll();
+
+        assertEquals(1, requests.get());
+        assertEquals(0, result.uploaded.get());
+        assertEquals(10, result.failed.get());
+        assertEquals(0, source.synced.size());
+    }
+
+    @Test
+    public void rowsThatCouldNotBeMarkedAreNotCountedAsUploaded() {
+        FakeSource source = new FakeSource(10);
+        source.failMarking = true;
+
+        SupabaseSyncWorker.SyncResult result = worker(source, new FakeCursorStore()).syncAll();
+
+        assertEquals(1, requests.get());
+        assertEquals(0, result.uploaded.get());
+        assertEquals(10, result.failed.get());
+    }
+
+    private SupabaseSyncWorker worker(FakeSource source, FakeCursorStore cursors) {
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        return new SupabaseSyncWorker(source, cursors, baseUrl, API_KEY);
+    }
+
+    private static int sum(List<Integer> values) {
+        int total = 0;
+        for (int value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    private static String gunzip(InputStream in) throws IOException {
+        try (InputStream gzip = new GZIPInputStream(in)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = gzip.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class FakeSource implements SupabaseSyncWorker.PageSource {
+        final List<TransactionStore.Row> rows = new ArrayList<>();
+        final Set<Long> synced = Collections.synchronizedSet(new HashSet<>());
+        volatile boolean failMarking = false;
+        volatile boolean closed = false;
+
+        FakeSource(int count) {
+            for (int i = 1; i <= count; i++) {
+                TransactionStore.Row row = new TransactionStore.Row();
+                row.rowId = i;
+                row.id = "txn-" + i;
+                row.amount = i * 10.5;
+                row.bankName = "SCB";
+                row.accountNumber = "123-4-56789";
+                row.senderInfo = "นาย สมชาย";
+                row.timestamp = 1700000000000L + i;
+                rows.add(row);
+            }
+        }
+
+        @Override
+        public List<TransactionStore.Row> readUnsyncedPage(long afterRowId, int limit) {
+            List<TransactionStore.Row> page = new ArrayList<>(limit);
+            for (TransactionStore.Row row : rows) {
+                if (row.rowId > afterRowId && !synced.contains(row.rowId) && page.size() < limit) {
+                    page.add(row);
+                }
+            }
+            return page;
+        }
+
+        @Override
+        public int markSynced(List<TransactionStore.Row> page) {
+            if (failMarking) return 0;
+            for (TransactionStore.Row row : page) {
+                synced.add(row.rowId);
+            }
+            return page.size();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static final class FakeCursorStore implements SupabaseSyncWorker.CursorStore {
+        final List<Long> saved = new CopyOnWriteArrayList<>();
+        volatile long cursor = 0;
+
+        @Override
+        public long load() {
+            return cursor;
+        }
+
+        @Override
+        public void save(long value) {
+            cursor = value;
+            saved.add(value);
+        }
+    }
+}
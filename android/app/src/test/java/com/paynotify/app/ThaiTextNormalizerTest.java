@@ -0,0 +1,89 @@
+package com.paynotify.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class ThaiTextNormalizerTest {
+    // A slip as ML Kit returns it: NBSP, zero-width characters, full-width signs and ragged spacing
+    private static final String SLIP_TEXT = "โอนเงินสำเร็จ\n18 ต.ค. 69\u00A0 14:05 น.\r\n"
+        + "จาก นาย สมชาย\u200B ใจดี\n  ธ.ไทยพาณิชย์   xxx-x-x1234-x\n"
+        + "ไปยัง ร้านกาแฟ\u00A0ดอยช้าง\nบัญชี 123-4-56789\n"
+        + "จำนวนเงิน\u00A0\u00A0＋1,250.50 บาท\nค่าธรรมเนียม 0.00 บาท\n"
+        + "เลขที่รายการ 2026101814053312345\nสแกนตรวจสอบสลิป";
+
+    // The patterns OCRProcessor matched raw text with before normalization was added
+    private static final Pattern LEGACY_AMOUNT = Pattern.compile(
+        "(?:THB|฿|บาท)\\s*([0-9,]+\\.?\\d*)|([0-9,]+\\.?\\d*)\\s*(?:THB|฿|บาท)");
+    private static final Pattern LEGACY_ACCOUNT = Pattern.compile(
+        "(?:a/c|account|บัญชี)[^\\d]*(\\d{3}[-\\s]?\\d+[-\\s]?\\d+)");
+    private static final Pattern LEGACY_SENDER = Pattern.compile(
+        "(?:จาก|from|โดย|By)[^\\d\\n]*([\\wก-๙\\s'\".]+?)(?:\\s|$)");
+
+    @Test
+    public void mapsThaiAndFullWidthDigits() {
+        assertEquals("1,250.50 บาท", ThaiTextNormalizer.normalize("๑,๒๕๐.๕๐ บาท"));
+        assertEquals("+100", ThaiTextNormalizer.normalize("＋１００"));
+    }
+
+    @Test
+    public void dropsInvisibleCharactersAndCollapsesWhitespace() {
+        assertEquals("นาย สมชาย", ThaiTextNormalizer.normalize("นาย\u200B\u00A0 \t สม\u00ADชาย"));
+        assertEquals("a\nb", ThaiTextNormalizer.normalize("  a  \r\n \n  b  "));
+    }
+
+    @Test
+    public void stopsAtMaxLength() {
+        assertEquals("12345", ThaiTextNormalizer.normalize("1234567890", 5));
+        assertEquals("", ThaiTextNormalizer.normalize(null));
+    }
+
+    @Test
+    public void extractsTheSameFieldsAsBefore() {
+        String[] legacy = extractLegacy(SLIP_TEXT.replace("＋", ""));
+        String[] normalized = extractNormalized(SLIP_TEXT);
+
+        assertEquals("1,250.50", normalized[0]);
+        assertEquals(legacy[0], normalized[0]);
+        assertEquals(legacy[1], normalized[1]);
+    }
+
+    @Test
+    public void readsAmountsTheLegacyPatternsMissed() {
+        String slip = "จำนวนเงิน ๑,๒๕๐.๕๐\u00A0บาท";
+
+        assertNull(extractLegacy(slip)[0]);
+        assertEquals("1,250.50", extractNormalized(slip)[0]);
+    }
+
+    private static String[] extractLegacy(String text) {
+        return extract(text, LEGACY_AMOUNT, LEGACY_ACCOUNT, LEGACY_SENDER);
+    }
+
+    private static String[] extractNormalized(String text) {
+        return extract(ThaiTextNormalizer.normalize(text, OCRProcessor.MAX_TEXT_LENGTH),
+            OCRProcessor.AMOUNT_PATTERN, OCRProcessor.ACCOUNT_PATTERN, OCRProcessor.SENDER_PATTERN);
+    }
+
+    private static String[] extract(String text, Pattern amountPattern, Pattern accountPattern,
+                                    Pattern senderPattern) {
+        String[] fields = new String[3];
+        Matcher amountMatcher = amountPattern.matcher(text);
+        if (amountMatcher.find()) {
+            fields[0] = amountMatcher.group(1) != null ? amountMatcher.group(1) : amountMatcher.group(2);
+        }
+        Matcher accountMatcher = accountPattern.matcher(text);
+        if (accountMatcher.find()) {
+            fields[1] = accountMatcher.group(1);
+        }
+        Matcher senderMatcher = senderPattern.matcher(text);
+        if (senderMatcher.find()) {
+            fields[2] = senderMatcher.group(1).trim();
+        }
+        return fields;
+    }
+}